@@ -43,6 +43,7 @@ public class BitmapFontTestMidlet extends MIDlet implements CommandListener {
 	private MultiTextTestCanvas multiTextCanvas;
 	private StylesTestCanvas stylesTextCanvas;
 	private RainbowTestCanvas rainbowCanvas;
+	private ColorizingBenchmarkCanvas benchmarkCanvas;
 
 	public BitmapFontTestMidlet() {
 	}
@@ -68,7 +69,8 @@ public class BitmapFontTestMidlet extends MIDlet implements CommandListener {
 				case 1: showMultiText(); break;
 				case 2: showStyles(); break;
 				case 3: showRainbow(); break;
-				case 4:	notifyDestroyed(); break;
+				case 4: showBenchmark(); break;
+				case 5:	notifyDestroyed(); break;
 				}
 			}
 		} else {
@@ -96,6 +98,7 @@ public class BitmapFontTestMidlet extends MIDlet implements CommandListener {
 			menuList.append("Formatted Text", null);
 			menuList.append("Font Styles", null);
 			menuList.append("Rainbow", null);
+			menuList.append("Colorizing Benchmark", null);
 			menuList.append("Exit", null);
 			menuList.setCommandListener(this);
 		}
@@ -127,6 +130,12 @@ public class BitmapFontTestMidlet extends MIDlet implements CommandListener {
 		showTestCanvas(rainbowCanvas);
 	}
 
+	private void showBenchmark() {
+		benchmarkCanvas = new ColorizingBenchmarkCanvas();
+		showTestCanvas(benchmarkCanvas);
+		benchmarkCanvas.start();
+	}
+
 	private void showTestCanvas(Canvas canvas) {
 		canvas.addCommand(backCommand);
 		canvas.setCommandListener(this);
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.microedition.lcdui.Canvas;
+import javax.microedition.lcdui.Graphics;
+import javax.microedition.lcdui.Image;
+
+import net.sergetk.mobile.lcdui.BitmapFont;
+import net.sergetk.mobile.lcdui.PaletteColorizer;
+
+/**
+ * A benchmark of the palette colorizing. It compares the PaletteColorizer with the previous
+ * implementation, which copied the image data, calculated the brightness of every palette entry
+ * for each color and calculated CRC32 without a table.
+ * This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)
+ *
+ * @author Sergey Tkachev http://sergetk.net
+ */
+public class ColorizingBenchmarkCanvas extends Canvas {
+	private static final int PALETTE_ITERATIONS = 500;
+	private static final int IMAGE_ITERATIONS = 50;
+	private static final int CRC32_POLYNOMIAL = 0xEDB88320;
+
+	private BitmapFont font;
+	private String[] lines = {"Running..."};
+	private byte[] imageData;
+
+	public ColorizingBenchmarkCanvas() {
+		font = new BitmapFont("/serif.fnt");
+		try {
+			imageData = readResource("/moscow.png");
+		} catch (IOException e) {
+			lines = new String[] {"Can't read the image"};
+		}
+	}
+
+	/**
+	 * Starts the benchmark thread
+	 */
+	public void start() {
+		if (imageData == null) {
+			return;
+		}
+		new Thread(new Runnable() {
+			public void run() {
+				runBenchmark();
+				repaint();
+			}
+		}).start();
+	}
+
+	/**
+	 * Draws the screen
+	 */
+	protected void paint(Graphics g) {
+		int w = getWidth();
+		int h = getHeight();
+		g.setColor(0xFFFFFF);
+		g.fillRect(0, 0, w, h);
+		g.setColor(0x000000);
+		font.drawLines(g, lines, 0, lines.length, 5, 5, Graphics.LEFT | Graphics.TOP);
+	}
+
+	private void runBenchmark() {
+		PaletteColorizer colorizer = new PaletteColorizer(copy(imageData), 0, imageData.length);
+
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < PALETTE_ITERATIONS; i++) {
+			byte[] buffer = copy(imageData);
+			colorizePalette(buffer, getPaletteOffset(buffer), i * 0x010203);
+		}
+		long oldPalette = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < PALETTE_ITERATIONS; i++) {
+			colorizer.colorize(i * 0x010203);
+		}
+		long newPalette = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < IMAGE_ITERATIONS; i++) {
+			byte[] buffer = copy(imageData);
+			colorizePalette(buffer, getPaletteOffset(buffer), i * 0x010203);
+			Image.createImage(buffer, 0, buffer.length);
+		}
+		long oldImage = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < IMAGE_ITERATIONS; i++) {
+			colorizer.createImage(i * 0x010203);
+		}
+		long newImage = System.currentTimeMillis() - start;
+
+		lines = new String[] {
+				"Palette x " + PALETTE_ITERATIONS,
+				"  previous: " + oldPalette + " ms",
+				"  colorizer: " + newPalette + " ms",
+				"Image x " + IMAGE_ITERATIONS,
+				"  previous: " + oldImage + " ms",
+				"  colorizer: " + newImage + " ms"
+		};
+	}
+
+	private static byte[] copy(byte[] data) {
+		byte[] result = new byte[data.length];
+		System.arraycopy(data, 0, result, 0, data.length);
+		return result;
+	}
+
+	private byte[] readResource(String name) throws IOException {
+		InputStream input = getClass().getResourceAsStream(name);
+		if (input == null) {
+			throw new IOException();
+		}
+		try {
+			byte[] buffer = new byte[1024];
+			int length = 0;
+			for (;;) {
+				int count = input.read(buffer, length, buffer.length - length);
+				if (count < 0) {
+					break;
+				}
+				length += count;
+				if (length == buffer.length) {
+					byte[] newBuffer = new byte[buffer.length * 2];
+					System.arraycopy(buffer, 0, newBuffer, 0, length);
+					buffer = newBuffer;
+				}
+			}
+			byte[] result = new byte[length];
+			System.arraycopy(buffer, 0, result, 0, length);
+			return result;
+		} finally {
+			input.close();
+		}
+	}
+
+	/* The previous implementation of the colorizing */
+
+	private static int getPaletteOffset(byte[] buffer) {
+		int offset = 8;
+		while (getInt(buffer, offset + 4) != 0x504C5445) { // PLTE
+			offset += 4 + 4 + getInt(buffer, offset) + 4;
+		}
+		return offset;
+	}
+
+	private static void colorizePalette(byte [] buffer, int offset, int color) {
+		int dataLength = getInt(buffer, offset);
+		int dataOffset = offset + 8;
+
+		int r = (color & 0x00FF0000) >>> 16;
+		int g = (color & 0x0000FF00) >>> 8;
+		int b = (color & 0x000000FF);
+
+		for (int i = 0; i < dataLength / 3; i++) {
+			int pR = buffer[dataOffset+0] & 0xFF;
+			int pG = buffer[dataOffset+1] & 0xFF;
+			int pB = buffer[dataOffset+2] & 0xFF;
+
+			int brightness = (pR + pG + pB) / 3;
+
+			buffer[dataOffset++] = (byte) (r + (brightness * (255-r)) / 255); // red
+			buffer[dataOffset++] = (byte) (g + (brightness * (255-g)) / 255); // green
+			buffer[dataOffset++] = (byte) (b + (brightness * (255-b)) / 255); // blue
+		}
+
+		int crc = crc32(buffer, offset + 4, dataLength + 4);
+		setInt(buffer, offset + 8 + dataLength, crc);
+	}
+
+	private static int crc32(byte buffer[], int offset, int count) {
+		int crc = 0xFFFFFFFF;
+		while (count-- != 0) {
+			int t = (crc ^ buffer[offset++]) & 0xFF;
+			for (int i = 8; i > 0; i--) {
+				if ((t & 1) == 1) {
+					t = (t >>> 1) ^ CRC32_POLYNOMIAL;
+				} else {
+					t >>>= 1;
+				}
+			}
+			crc = (crc >>> 8) ^ t;
+		}
+		return crc  ^ 0xFFFFFFFF;
+	}
+
+	private static int getInt(byte [] buffer, int offset) {
+		int result = buffer[offset++] << 24;
+		result |= (buffer[offset++] << 16) & 0x00FF0000;
+		result |= (buffer[offset++] << 8)  & 0x0000FF00;
+		result |= buffer[offset] & 0x000000FF;
+		return result;
+	}
+
+	private static void setInt(byte [] buffer, int offset, int value) {
+		buffer[offset++] = (byte)((value & 0xFF000000) >>> 24);
+		buffer[offset++] = (byte)((value & 0x00FF0000) >>> 16);
+		buffer[offset++] = (byte)((value & 0x0000FF00) >>> 8);
+		buffer[offset]   = (byte)((value & 0x000000FF));
+	}
+}
@@ -29,6 +29,7 @@ import javax.microedition.lcdui.Font;
 
 import net.sergetk.mobile.lcdui.BitmapFont;
 import net.sergetk.mobile.lcdui.MultiText;
+import net.sergetk.mobile.lcdui.TileCache;
 
 /**
  * An example of formatting and drawing of a long text using a bitmap font.
@@ -50,6 +51,7 @@ public class MultiTextTestCanvas extends Canvas {
 	private Font systemFont;
 
 	private MultiText multiText;
+	private TileCache tileCache;
 	private Image moscowImage, upIcon, downIcon;
 	private int yPos = 0;
 	private int scrollStep;
@@ -65,6 +67,7 @@ public class MultiTextTestCanvas extends Canvas {
 		} catch (IOException e) { }
 		multiText = new MultiText(fontAlaRuss, MOSCOW_TEXT, moscowImage);
 		multiText.setWidth(getWidth());
+		tileCache = new TileCache(multiText, 32, 4 * getWidth() * getHeight() * 2, 0xE0D8A0);
 		scrollStep = getHeight() / 3;
 		scroll(0);
 	}
@@ -97,14 +100,16 @@ public class MultiTextTestCanvas extends Canvas {
 		// draw the background
 		int leftEdge = multiText.leftMargin - 2;
 		int rightEdge = w - multiText.rightMargin + 2;
-		g.setColor(0xA8A088);
-		g.fillRect(0, 0, leftEdge, h);
-		g.fillRect(rightEdge, 0, w - rightEdge, h);
 		g.setColor(0xE0D8A0);
 		g.fillRect(leftEdge, 0, rightEdge - leftEdge, h);
 
-		// draw the text
-		multiText.draw(g, 0, - yPos);
+		// draw the text, only the tiles which weren't drawn before are rendered
+		tileCache.draw(g, 0, - yPos);
+
+		// tiles cover the margins
+		g.setColor(0xA8A088);
+		g.fillRect(0, 0, leftEdge, h);
+		g.fillRect(rightEdge, 0, w - rightEdge, h);
 
 		// draw the scroll indicators
 		if (canScrollUp && upIcon != null) {
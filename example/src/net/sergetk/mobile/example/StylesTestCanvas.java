@@ -40,6 +40,7 @@ public class StylesTestCanvas extends Canvas {
 
 	public StylesTestCanvas() {
 		fontNormal = new BitmapFont("/serif.fnt");
+		fontNormal.setStylesPrerendered(true);
 		fontBold = fontNormal.getFont(Font.STYLE_BOLD);
 		fontItalic = fontNormal.getFont(Font.STYLE_ITALIC);
 		fontBoldItalic = fontNormal.getFont(Font.STYLE_BOLD | Font.STYLE_ITALIC);
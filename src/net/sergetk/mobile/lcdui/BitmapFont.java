@@ -20,9 +20,9 @@
  */
 package net.sergetk.mobile.lcdui;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.DataInputStream;
 import javax.microedition.lcdui.Graphics;
 import javax.microedition.lcdui.Image;
 import javax.microedition.lcdui.Font;
@@ -43,7 +43,8 @@ import javax.microedition.lcdui.Font;
  * and of principal part: one or more images in PNG format store character outlines.</p>
  * 
  * <p>By default all fonts are considered normal. Bold, italic and bold italic styles are generated
- * programmaticaly.</p>
+ * programmaticaly. Generated styles may be prerendered to separate images once, so each character
+ * takes only one image drawing in any style (see setStylesPrerendered()).</p>
  * 
  * <p>This code is a part of the <a href="http://sourceforge.net/projects/mobilefonts">Mobile Fonts Project</a>.</p>
  * 
@@ -51,35 +52,24 @@ import javax.microedition.lcdui.Font;
  * 
  * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
  */
-public class BitmapFont {
+public class BitmapFont implements TextRenderer {
 	private final static int DEFAULT_COLOR_CACHE_CAPACITY = 5;
 
-	private String imageName;
-	private Image[] baseImages;
-	private Image[] currentImages;
-
-	private int height;
-	private int baseline;
-	private int xIndent;
-	private int yIndent;
-	private int spaceWidth;
+	private FontCore core;
 
 	private int style;
-	private int currentColor;
+	private boolean italic;
+	private boolean bold;
 	private int charWidthIncrement = 0;
-	private int imagesOffset = 0;
-
-	private String characterMap;
-	private int[] widthes, x, y, idx;
 	protected byte version;
 
-	private int colorUsageCount;
-	private int[] colorUsage;
-	private int[] colorCache;
-	private Image[][] imageCache;
+	/**
+	 * The glyphs used last time. It is only a hint to skip the color cache lookup,
+	 * every drawing takes the glyphs of the graphics color to a local variable.
+	 */
+	private FontCore.Glyphs lastGlyphs;
 
-	private boolean italic;
-	private boolean bold;
+	private WidthCache widthCache;
 
 	private static BitmapFont defaultFont;
 
@@ -99,33 +89,12 @@ public class BitmapFont {
 		defaultFont = font;
 	}
 
-	private BitmapFont(BitmapFont font, int style) {
-		this.imageName = font.imageName;
-		this.currentImages = this.baseImages = font.baseImages;
-
-		this.height = font.height;
-		this.baseline = font.baseline;
-		this.xIndent = font.xIndent;
-		this.yIndent = font.yIndent;
-		this.spaceWidth = font.spaceWidth;
-
+	BitmapFont(BitmapFont font, int style) {
+		this.core = font.core;
+		this.version = font.version;
 		this.style = style;
 		this.italic = (style & Font.STYLE_ITALIC) != 0;
 		this.bold = (style & Font.STYLE_BOLD) != 0;
-		this.currentColor = 0;
-		this.imagesOffset = font.imagesOffset;
-
-		this.characterMap = font.characterMap;
-		this.widthes = font.widthes;
-		this.x = font.x;
-		this.y = font.y;
-		this.idx = font.idx;
-
-		this.colorUsageCount = font.colorUsageCount;
-		this.colorUsage = font.colorUsage;
-		this.colorCache = font.colorCache;
-		this.imageCache = font.imageCache;
-
 		this.charWidthIncrement = bold ? 1 : 0;
 	}
 
@@ -144,138 +113,249 @@ public class BitmapFont {
 	 * @param colorCacheCapacity the maximum color cache size 
 	 */
 	public BitmapFont(String fontName, int colorCacheCapacity) {
-		this.style = Font.STYLE_PLAIN;
-		this.currentColor = 0;
+		this(fontName, colorCacheCapacity, false);
+	}
 
+	/**
+	 * Creates a new font from the resource. If the font data is retained, images
+	 * of the font are kept in memory in the PNG format, so the colorizing of the font doesn't need
+	 * to read the resource again. Otherwise the resource is read on every color cache miss.
+	 * Errors of loading are ignored, use load() to get them.
+	 * @param fontName the resource name
+	 * @param colorCacheCapacity the maximum color cache size
+	 * @param retainData true to keep the font images data in memory
+	 */
+	public BitmapFont(String fontName, int colorCacheCapacity, boolean retainData) {
+		init();
 		try {
-			InputStream input = new Object().getClass().getResourceAsStream(fontName);
-			if (input == null) {
-				throw new IOException();
-			}
-			DataInputStream data = new DataInputStream(input);
-
-			imagesOffset = data.available() - 1;
-			this.imageName = fontName;
+			loadResource(fontName, colorCacheCapacity, retainData, -1);
+		} catch (IOException e) {
+		}
+	}
 
-			this.version = data.readByte();
-			this.height = data.readByte();
-			this.baseline = data.readByte();
-			this.xIndent = data.readByte();
-			this.yIndent = data.readByte();
-			this.spaceWidth = data.readByte();
+	/**
+	 * Creates a new font from the stream, i.e. from the record store or from the network.
+	 * Font images are kept in memory, because the stream can't be read again.
+	 * The stream isn't closed.
+	 * @param input the stream containing the font data
+	 * @param colorCacheCapacity the maximum color cache size
+	 */
+	public BitmapFont(InputStream input, int colorCacheCapacity) {
+		init();
+		try {
+			byte[] data = FontCore.readFully(input);
+			load(data, 0, data.length, colorCacheCapacity, true, -1);
+		} catch (IOException e) {
+		}
+	}
 
-			characterMap = data.readUTF();
+	/**
+	 * Creates a new font from the byte array. Font images are kept in memory.
+	 * @param data the font data
+	 * @param colorCacheCapacity the maximum color cache size
+	 */
+	public BitmapFont(byte[] data, int colorCacheCapacity) {
+		this(new ByteArrayInputStream(data), colorCacheCapacity);
+	}
 
-			int count = characterMap.length();
+	private BitmapFont() {
+		init();
+	}
 
-			// read characters widthes
-			this.widthes = new int[count];
-			this.x = new int[count];
-			this.y = new int[count];
-			this.idx = new int[count];
+	/**
+	 * Loads the font from the resource. The resource is read at once. Unlike the constructor,
+	 * the method reports errors of loading.
+	 * @param fontName the resource name
+	 * @param colorCacheCapacity the maximum color cache size
+	 * @param retainData true to keep the font images data in memory
+	 * @return the font
+	 * @throws FontFormatException if the resource isn't a valid font
+	 * @throws IOException if the resource isn't found or can't be read
+	 */
+	public static BitmapFont load(String fontName, int colorCacheCapacity, boolean retainData)
+			throws IOException {
+		BitmapFont font = new BitmapFont();
+		font.loadResource(fontName, colorCacheCapacity, retainData, -1);
+		return font;
+	}
 
-			for (int i = 0; i < count; i++) {
-				widthes[i] = data.readByte();
-			}
+	/**
+	 * Loads the font from the stream. The stream is read to the end, but it isn't closed.
+	 * Font images are kept in memory.
+	 * @param input the stream containing the font data
+	 * @param colorCacheCapacity the maximum color cache size
+	 * @return the font
+	 * @throws FontFormatException if the data isn't a valid font
+	 * @throws IOException if the stream can't be read
+	 */
+	public static BitmapFont load(InputStream input, int colorCacheCapacity) throws IOException {
+		byte[] data = FontCore.readFully(input);
+		return load(data, 0, data.length, colorCacheCapacity);
+	}
 
-			// read font images
-			int imagesCount = data.readByte();
-			baseImages = new Image[imagesCount]; 
+	/**
+	 * Loads the font from the part of the byte array. The array isn't copied: images
+	 * are decoded right from it and their data is kept in it, so the array must not be
+	 * changed after loading. Colorizing of the font rewrites palettes of images in the array.
+	 * @param data the array containing the font data
+	 * @param offset the offset of the font data in the array
+	 * @param length the length of the font data
+	 * @param colorCacheCapacity the maximum color cache size
+	 * @return the font
+	 * @throws FontFormatException if the data isn't a valid font
+	 */
+	public static BitmapFont load(byte[] data, int offset, int length, int colorCacheCapacity)
+			throws FontFormatException {
+		BitmapFont font = new BitmapFont();
+		font.load(data, offset, length, colorCacheCapacity, true, -1);
+		return font;
+	}
 
-			for (int i = 0; i < imagesCount; i++) {
-				int imageLength = data.readShort();
-				byte[] buffer = new byte[imageLength];
-				data.read(buffer, 0, imageLength);
-				baseImages[i] = Image.createImage(buffer, 0, imageLength);
+	/**
+	 * Loads the lazy font from the resource. Only the PNG data of images is kept
+	 * after loading, an image is decoded when a character of it is drawn first time.
+	 * Measuring of texts doesn't need images. When decoded images exceed the budget,
+	 * the least recently used ones are released. Prerendered styles and outlines
+	 * are created from all images, they are kept in their color caches as usual.
+	 * @param fontName the resource name
+	 * @param colorCacheCapacity the maximum color cache size
+	 * @param pageBudget the maximum size of decoded images in bytes, each pixel takes 4 bytes
+	 * @return the font
+	 * @throws FontFormatException if the resource isn't a valid font
+	 * @throws IOException if the resource isn't found or can't be read
+	 */
+	public static BitmapFont loadLazy(String fontName, int colorCacheCapacity, int pageBudget)
+			throws IOException {
+		BitmapFont font = new BitmapFont();
+		font.loadResource(fontName, colorCacheCapacity, true, Math.max(pageBudget, 0));
+		return font;
+	}
 
-				imagesOffset -= imageLength + 2;
-			}
+	/**
+	 * Loads the lazy font from the part of the byte array, see loadLazy(String, int, int).
+	 * The array isn't copied, so it must not be changed after loading.
+	 * @param data the array containing the font data
+	 * @param offset the offset of the font data in the array
+	 * @param length the length of the font data
+	 * @param colorCacheCapacity the maximum color cache size
+	 * @param pageBudget the maximum size of decoded images in bytes
+	 * @return the font
+	 * @throws FontFormatException if the data isn't a valid font
+	 */
+	public static BitmapFont loadLazy(byte[] data, int offset, int length, int colorCacheCapacity,
+			int pageBudget) throws FontFormatException {
+		BitmapFont font = new BitmapFont();
+		font.load(data, offset, length, colorCacheCapacity, true, Math.max(pageBudget, 0));
+		return font;
+	}
 
-			currentImages = baseImages;
-
-			// calculate characters coordinates
-			int curX = 0, curY = 0, curIdx = 0;
-			int curImageWidth = currentImages[0].getWidth();
-			int curImageHeight = currentImages[0].getHeight();
-
-			for (int i = 0; i < count; i++) {
-				if (widthes[i] < 0) {
-					// negative width points to another character
-					int sourceIndex =  - widthes[i];
-					widthes[i] = widthes[sourceIndex];
-					x[i] = x[sourceIndex];
-					y[i] = y[sourceIndex];
-					idx[i] = idx[sourceIndex];
-				} else {
-					if (curX + widthes[i] > curImageWidth) {
-						curX = 0;
-						curY += height;
-						if (curY > curImageHeight) {
-							curY = 0;
-							curIdx++;
-							curImageWidth = currentImages[curIdx].getWidth();
-							curImageHeight = currentImages[curIdx].getHeight();
-						}
-					}
-
-					x[i] = curX;
-					y[i] = curY;
-					idx[i] = curIdx;
-					curX += widthes[i];
-				}
-			}
-			colorCache = new int[colorCacheCapacity];
-			colorUsage = new int[colorCacheCapacity];
-			imageCache = new Image[colorCacheCapacity][];
+	private void init() {
+		this.style = Font.STYLE_PLAIN;
+		this.core = new FontCore();
+		this.core.fonts[style] = this;
+	}
 
-			if (defaultFont == null)
-				defaultFont = this;
-		} catch	(IOException e) {
+	private void loadResource(String fontName, int colorCacheCapacity, boolean retainData,
+			int pageBudget) throws IOException {
+		core.imageName = fontName;
+		InputStream input = new Object().getClass().getResourceAsStream(fontName);
+		if (input == null) {
+			throw new IOException("No resource " + fontName);
 		}
+		try {
+			byte[] data = FontCore.readFully(input);
+			load(data, 0, data.length, colorCacheCapacity, retainData, pageBudget);
+		} finally {
+			try {
+				input.close();
+			} catch (IOException e) {}
+		}
+	}
+
+	private void load(byte[] data, int offset, int length, int colorCacheCapacity, boolean retainData,
+			int pageBudget) throws FontFormatException {
+		core.load(data, offset, length, colorCacheCapacity, retainData, pageBudget);
+		this.version = core.version;
+
+		if (defaultFont == null)
+			defaultFont = this;
 	}
 
 	/**
-	 * Creates a new font instance with a new style with minimal memory consumption
+	 * Gets the font instance with the specified style. Instances are created once
+	 * for each style and share all the data of the font.
 	 * @param style the style of the font
 	 * @return the font
 	 */
 	public BitmapFont getFont(int style) {
-		return new BitmapFont(this, style);
+		return core.getFont(this, style);
+	}
+
+	/**
+	 * Turns on or off the prerendering of the generated styles for all styles of this font.
+	 * Bold and italic characters are drawn in several steps by default. When prerendering
+	 * is on, styled characters are drawn once to separate images at the first use of the style,
+	 * and then every character is drawn by one operation. Prerendered images are kept in a separate
+	 * color cache of each style, so it requires additional memory.
+	 * @param prerendered true to prerender the styles
+	 */
+	public void setStylesPrerendered(boolean prerendered) {
+		core.setPrerendered(prerendered);
 	}
 
+	/**
+	 * Checks if the generated styles of this font are prerendered.
+	 * @return true if the styles are prerendered
+	 */
+	public boolean isStylesPrerendered() {
+		return core.isPrerendered();
+	}
+
+	/**
+	 * Changes the budget of decoded images of the lazy font. The least recently used
+	 * images are released if they don't fit the new budget. It doesn't affect fonts
+	 * which aren't lazy.
+	 * @param pageBudget the maximum size of decoded images in bytes
+	 */
+	public void setPageBudget(int pageBudget) {
+		core.setPageBudget(Math.max(pageBudget, 0));
+	}
+
+	/**
+	 * Prepares the images of the color, so the next drawing in this color doesn't wait
+	 * for the colorizing. Drawing methods take the color from the graphics context,
+	 * so there is no need to call it before drawing.
+	 * @param color the color
+	 */
 	protected void setColor(int color) {
-		color &= 0x00FFFFFF;  
-		if (this.currentColor == color) {
-			return;
-		}
+		getGlyphs(color);
+	}
 
-		this.currentColor = color;
-		if (color == 0x00000000) { // new color is black
-			this.currentImages = this.baseImages;
-		} else {
-			int cacheItemIndex = 0;
-			int minUsage = Integer.MAX_VALUE;
-			for (int i = 0; i < colorCache.length; i++) {
-				if (colorCache[i] == color) {
-					// the color is already in the cache
-					currentImages = imageCache[i];
-					colorUsage[i] = colorUsageCount++;
-					return;
-				} else if (colorCache[i] == 0) {
-					// cache item is empty
-					cacheItemIndex = i;
-					break;
-				} else if (colorUsage[i] < minUsage) {
-					minUsage = colorUsage[i];
-					cacheItemIndex = i;
-				}
-			}
-			Image[] images = getColorizedImages(this.imageName, this.imagesOffset, color);
-			colorCache[cacheItemIndex] = color;
-			imageCache[cacheItemIndex] = images;
-			colorUsage[cacheItemIndex] = colorUsageCount++;
-			this.currentImages = images;
+	/**
+	 * Gets the glyphs of this style in the specified color. The font keeps no current color,
+	 * so several threads may draw by the same font in different colors.
+	 * @param color the color
+	 * @return the glyphs
+	 */
+	private FontCore.Glyphs getGlyphs(int color) {
+		return getGlyphs(color, false);
+	}
+
+	/**
+	 * Gets the glyphs of this style in the specified color.
+	 * @param color the color
+	 * @param prerendered true to get the prerendered style even if styles aren't prerendered
+	 * @return the glyphs
+	 */
+	private FontCore.Glyphs getGlyphs(int color, boolean prerendered) {
+		color &= 0x00FFFFFF;
+		prerendered = (bold || italic) && (prerendered || core.isPrerendered());
+		FontCore.Glyphs glyphs = lastGlyphs;
+		if (glyphs == null || glyphs.color != color || glyphs.prerendered != prerendered) {
+			glyphs = core.getGlyphs(style, color, prerendered);
+			lastGlyphs = glyphs;
 		}
+		return glyphs;
 	}
 
 	/**
@@ -291,7 +371,7 @@ public class BitmapFont {
 	 * @return the height in pixels
 	 */
 	public int getHeight() {
-		return height + yIndent;
+		return core.height + core.yIndent;
 	}
 
 	/**
@@ -300,11 +380,7 @@ public class BitmapFont {
 	 * @return the index of the character
 	 */
 	protected int charIndex(char c) {
-		try {
-			return characterMap.indexOf(c);
-		} catch (IndexOutOfBoundsException e) {
-			return -1;
-		}
+		return core.charIndex(c);
 	}
 
 	/**
@@ -312,7 +388,7 @@ public class BitmapFont {
 	 * @return the baseline position in pixels
 	 */
 	public int getBaselinePosition() {
-		return baseline;
+		return core.baseline;
 	}
 
 	/**
@@ -340,15 +416,161 @@ public class BitmapFont {
 	 * @return the x coordinate for the next string
 	 */	
 	public int drawSubstring(Graphics g, String text, int offset, int length, int x, int y, int anchors) {
-		int xx = getX(substringWidth(text, offset, length), x, anchors);
+		int xx = x;
+		if ((anchors & (Graphics.RIGHT | Graphics.HCENTER)) != 0) {
+			xx = getX(substringWidth(text, offset, length), x, anchors);
+		}
 		int yy = getY(y, anchors);
-		setColor(g.getColor());
+		FontCore.Glyphs glyphs = getGlyphs(g.getColor());
+
+		int clipX = g.getClipX();
+		int clipY = g.getClipY();
+		int clipWidth = g.getClipWidth();
+		int clipHeight = g.getClipHeight();
+		int clipRight = clipX + clipWidth;
+		int clipBottom = clipY + clipHeight;
+
 		for (int i = offset; i < offset + length; i++) {
-			xx = drawOneChar(g, text.charAt(i), xx, yy);
+			xx = drawGlyph(g, glyphs, text.charAt(i), xx, yy, clipX, clipY, clipRight, clipBottom);
 		}
+		// restore clipping once for the whole string
+		g.setClip(clipX, clipY, clipWidth, clipHeight);
+
 		if ((style & Font.STYLE_UNDERLINED) != 0) {
-			int yU = y + this.baseline + 2;
-			g.drawLine(x, yU, xx - 1, yU);
+			drawUnderline(g, x, xx, y);
+		}
+		return xx;
+	}
+
+	/**
+	 * Draws the lines of the text one under another. The color and the clipping
+	 * of the graphics context are processed once for all the lines.
+	 * @param g the graphics context
+	 * @param lines the array of lines to be drawn
+	 * @param offset the index of a first line
+	 * @param length the number of lines
+	 * @param x the x coordinate of the anchor point of the lines
+	 * @param y the y coordinate of the anchor point of the first line
+	 * @param anchors the anchor point for positioning of each line
+	 * @return the y coordinate for the next line
+	 */
+	public int drawLines(Graphics g, String[] lines, int offset, int length, int x, int y, int anchors) {
+		int lineHeight = getHeight();
+		FontCore.Glyphs glyphs = getGlyphs(g.getColor());
+
+		int clipX = g.getClipX();
+		int clipY = g.getClipY();
+		int clipWidth = g.getClipWidth();
+		int clipHeight = g.getClipHeight();
+		int clipRight = clipX + clipWidth;
+		int clipBottom = clipY + clipHeight;
+
+		for (int i = offset; i < offset + length; i++, y += lineHeight) {
+			String line = lines[i];
+			int yy = getY(y, anchors);
+			if (line == null || yy + lineHeight <= clipY || yy >= clipBottom) {
+				continue; // the line is out of the clip
+			}
+			int xx = x;
+			if ((anchors & (Graphics.RIGHT | Graphics.HCENTER)) != 0) {
+				xx = getX(stringWidth(line), x, anchors);
+			}
+			int count = line.length();
+			for (int j = 0; j < count; j++) {
+				xx = drawGlyph(g, glyphs, line.charAt(j), xx, yy, clipX, clipY, clipRight, clipBottom);
+			}
+			if ((style & Font.STYLE_UNDERLINED) != 0) {
+				g.setClip(clipX, clipY, clipWidth, clipHeight);
+				drawUnderline(g, x, xx, y);
+			}
+		}
+		g.setClip(clipX, clipY, clipWidth, clipHeight);
+		return y;
+	}
+
+	/**
+	 * Draws the string with the outline. Outlines of characters are prepared once
+	 * for each outline color and kept in the color cache, so each character is drawn
+	 * by two image drawings: the outline and the character itself. Bold and italic
+	 * characters are prerendered for it even if the styles aren't prerendered.
+	 * @param g the graphics context
+	 * @param outlineColor the color of the outline
+	 * @param text the text to be drawn
+	 * @param x the x coordinate of the anchor point
+	 * @param y the y coordinate of the anchor point
+	 * @param anchors the anchor point for positioning the text
+	 * @return the x coordinate for the next string
+	 */
+	public int drawOutlinedString(Graphics g, int outlineColor, String text, int x, int y, int anchors) {
+		return drawWithEffect(g, outlineColor, true, text, x, y, anchors);
+	}
+
+	/**
+	 * Draws the string with the shadow, which is the same string moved one pixel
+	 * to the right and to the bottom. Each character is drawn by two image drawings.
+	 * @param g the graphics context
+	 * @param shadowColor the color of the shadow
+	 * @param text the text to be drawn
+	 * @param x the x coordinate of the anchor point
+	 * @param y the y coordinate of the anchor point
+	 * @param anchors the anchor point for positioning the text
+	 * @return the x coordinate for the next string
+	 */
+	public int drawShadowedString(Graphics g, int shadowColor, String text, int x, int y, int anchors) {
+		return drawWithEffect(g, shadowColor, false, text, x, y, anchors);
+	}
+
+	private int drawWithEffect(Graphics g, int effectColor, boolean outline,
+			String text, int x, int y, int anchors) {
+		int length = text.length();
+		int xx = x;
+		if ((anchors & (Graphics.RIGHT | Graphics.HCENTER)) != 0) {
+			xx = getX(stringWidth(text), x, anchors);
+		}
+		int yy = getY(y, anchors);
+		int textColor = g.getColor();
+		FontCore.Glyphs glyphs = getGlyphs(textColor, true);
+		FontCore.Glyphs effect;
+		// the outline is drawn from the top left corner of the character,
+		// the shadow is moved to the bottom right
+		int shift;
+		if (outline) {
+			effect = core.getOutlineGlyphs(style, effectColor);
+			shift = -1;
+		} else {
+			effect = core.getGlyphs(style, effectColor, true);
+			shift = 1;
+		}
+
+		int clipX = g.getClipX();
+		int clipY = g.getClipY();
+		int clipWidth = g.getClipWidth();
+		int clipHeight = g.getClipHeight();
+		int clipRight = clipX + clipWidth;
+		int clipBottom = clipY + clipHeight;
+
+		g.setColor(effectColor);
+		int effectX = xx + shift;
+		for (int i = 0; i < length; i++) {
+			effectX = drawGlyph(g, effect, text.charAt(i), effectX, yy + shift, clipX, clipY, clipRight, clipBottom);
+		}
+		g.setClip(clipX, clipY, clipWidth, clipHeight);
+		if ((style & Font.STYLE_UNDERLINED) != 0) {
+			int yU = y + core.baseline + 2;
+			if (outline) {
+				g.fillRect(x - 1, yU - 1, effectX - x + 3, 3);
+			} else {
+				g.drawLine(x + 1, yU + 1, effectX - 1, yU + 1);
+			}
+		}
+
+		g.setColor(textColor);
+		for (int i = 0; i < length; i++) {
+			xx = drawGlyph(g, glyphs, text.charAt(i), xx, yy, clipX, clipY, clipRight, clipBottom);
+		}
+		g.setClip(clipX, clipY, clipWidth, clipHeight);
+		if ((style & Font.STYLE_UNDERLINED) != 0) {
+			drawUnderline(g, x, xx, y);
 		}
 		return xx;
 	}
@@ -365,10 +587,10 @@ public class BitmapFont {
 
 	private int getY(int y, int anchors) {
 		if ((anchors & Graphics.BOTTOM) != 0) {
-			return y - height;
+			return y - core.height;
 		} else
 			if ((anchors & Graphics.VCENTER) != 0) {
-				return y - height/2;
+				return y - core.height/2;
 			} else
 				if ((anchors & Graphics.BASELINE) != 0) {
 					return y - this.getBaselinePosition();
@@ -376,6 +598,22 @@ public class BitmapFont {
 		return y;
 	}
 
+	/**
+	 * Draws the specified character.
+	 * @param g the graphics context
+	 * @param c the character to be drawn
+	 * @param x the x coordinate of the anchor point
+	 * @param y the y coordinate of the anchor point
+	 * @param anchors the anchor point for positioning of the character
+	 * @return the x coordinate for the next character
+	 */
+	public int drawChar(Graphics g, char c, int x, int y, int anchors) {
+		if ((anchors & (Graphics.RIGHT | Graphics.HCENTER)) != 0) {
+			x = getX(charWidth(c), x, anchors);
+		}
+		return drawChar(g, c, x, getY(y, anchors));
+	}
+
 	/**
 	 * Draws the specified character.
 	 * @param g the graphics context
@@ -385,15 +623,19 @@ public class BitmapFont {
 	 * @return the x coordinate for the next character
 	 */
 	public int drawChar(Graphics g, char c, int x, int y) {
-		setColor(g.getColor());
-		int nextX = drawOneChar(g, c, x, y);
+		FontCore.Glyphs glyphs = getGlyphs(g.getColor());
+		int nextX = drawOneChar(g, glyphs, c, x, y);
 		if ((style & Font.STYLE_UNDERLINED) != 0) {
-			int yU = y + this.baseline + 2;
-			g.drawLine(x, yU, nextX - 1, yU);
+			drawUnderline(g, x, nextX, y);
 		}
 		return nextX;
 	}
 
+	private void drawUnderline(Graphics g, int x, int nextX, int y) {
+		int yU = y + core.baseline + 2;
+		g.drawLine(x, yU, nextX - 1, yU);
+	}
+
 	/**
 	 * Draws one character. It called from drawChar(), drawString() and drawSubstrung(). 
 	 * @param g the graphics context
@@ -403,65 +645,126 @@ public class BitmapFont {
 	 * @return the x coordinate for the next character
 	 */
 	protected int drawOneChar(Graphics g, char c, int x, int y) {
+		return drawOneChar(g, getGlyphs(g.getColor()), c, x, y);
+	}
+
+	private int drawOneChar(Graphics g, FontCore.Glyphs glyphs, char c, int x, int y) {
+		int clipX = g.getClipX();
+		int clipY = g.getClipY();
+		int clipWidth = g.getClipWidth();
+		int clipHeight = g.getClipHeight();
+
+		int nextX = drawGlyph(g, glyphs, c, x, y, clipX, clipY, clipX + clipWidth, clipY + clipHeight);
+		// restore clipping
+		g.setClip(clipX, clipY, clipWidth, clipHeight);
+		return nextX;
+	}
+
+	/**
+	 * Draws one character inside the saved clip rectangle. The clip of the graphics context
+	 * is replaced by the glyph rectangle and isn't restored, so the caller must restore
+	 * it after the last character.
+	 * @param g the graphics context
+	 * @param glyphs the glyphs of the graphics color
+	 * @param c the character to be drawn
+	 * @param x the x coordinate of the anchor point
+	 * @param y the y coordinate of the anchor point
+	 * @param clipLeft the left edge of the saved clip
+	 * @param clipTop the top edge of the saved clip
+	 * @param clipRight the right edge of the saved clip
+	 * @param clipBottom the bottom edge of the saved clip
+	 * @return the x coordinate for the next character
+	 */
+	private int drawGlyph(Graphics g, FontCore.Glyphs glyphs, char c, int x, int y,
+			int clipLeft, int clipTop, int clipRight, int clipBottom) {
+		FontCore core = this.core;
 		// skip if it is a space
 		if (c == ' ') {
-			return x + this.spaceWidth + xIndent + charWidthIncrement;
+			return x + core.spaceWidth + core.xIndent + charWidthIncrement;
 		}
-		int charIndex = charIndex(c);
+		int charIndex = core.charIndex(c);
+		int height = core.height;
 		// draw the unknown character as a rectangle
 		if (charIndex < 0) {
-			int squareWidth = this.spaceWidth + xIndent + charWidthIncrement;
-			g.drawRect(x, y, squareWidth - 1, height - 1);
+			int squareWidth = core.spaceWidth + core.xIndent + charWidthIncrement;
+			g.setClip(clipLeft, clipTop, clipRight - clipLeft, clipBottom - clipTop);
+			if (glyphs.extraHeight > 0) {
+				// the outline of the rectangle
+				g.drawRect(x, y, squareWidth + 1, height + 1);
+				g.drawRect(x + 1, y + 1, squareWidth - 1, height - 1);
+				g.drawRect(x + 2, y + 2, squareWidth - 3, height - 3);
+			} else {
+				g.drawRect(x, y, squareWidth - 1, height - 1);
+			}
 			return x + squareWidth;
 		}
 
-		int charX      = this.x[charIndex];
-		int charY      = this.y[charIndex];
-		int cw         = widthes[charIndex];
-		int imageIndex = idx[charIndex];
+		int charX      = glyphs.x[charIndex];
+		int charY      = glyphs.y[charIndex];
+		int cw         = core.widthes[charIndex];
 
-		y += yIndent / 2;
+		y += core.yIndent / 2;
 
-		Image image = this.currentImages[imageIndex];
-
-		int clipX = g.getClipX();
-		int clipY = g.getClipY();
-		int clipWidth = g.getClipWidth();
-		int clipHeight = g.getClipHeight();
+		int nextX = x + cw + core.xIndent + charWidthIncrement;
+		if (x + cw + glyphs.extraWidth + 2 <= clipLeft || x >= clipRight
+				|| y + height + glyphs.extraHeight <= clipTop || y >= clipBottom) {
+			return nextX; // the character is out of the clip
+		}
 
-		int ix = x - charX;
-		int iy = y - charY;
+		// images of the lazy font are decoded when they are drawn first time
+		int page = glyphs.idx[charIndex];
+		Image image = glyphs.pageUsage == null ? glyphs.images[page] : core.getPage(glyphs, page);
 
-		if (!italic && !bold) {
-			g.clipRect(x, y, cw, this.height);
-			g.drawImage(image, ix, iy, Graphics.LEFT | Graphics.TOP);
+		if (glyphs.prerendered) {
+			drawClipped(g, image, charX, charY, x, y, cw + glyphs.extraWidth, height + glyphs.extraHeight,
+					clipLeft, clipTop, clipRight, clipBottom);
+		} else if (!italic && !bold) {
+			drawClipped(g, image, charX, charY, x, y, cw, height, clipLeft, clipTop, clipRight, clipBottom);
 		} else if (italic & bold) {
 			int halfHeight = height / 2;
-			g.clipRect(x + 1, y, cw, this.height);
-			g.drawImage(image, ix + 1, iy, Graphics.LEFT | Graphics.TOP);
-			g.setClip(clipX, clipY, clipWidth, clipHeight);
-			g.clipRect(x + 2, y, cw, halfHeight);
-			g.drawImage(image, ix + 2, iy, Graphics.LEFT | Graphics.TOP);
-			g.setClip(clipX, clipY, clipWidth, clipHeight);
-			g.clipRect(x, y + halfHeight, cw, height - halfHeight);
-			g.drawImage(image, ix, iy, Graphics.LEFT | Graphics.TOP);
+			drawClipped(g, image, charX, charY, x + 1, y, cw, height, clipLeft, clipTop, clipRight, clipBottom);
+			drawClipped(g, image, charX, charY, x + 2, y, cw, halfHeight, clipLeft, clipTop, clipRight, clipBottom);
+			drawClipped(g, image, charX, charY + halfHeight, x, y + halfHeight, cw, height - halfHeight,
+					clipLeft, clipTop, clipRight, clipBottom);
 		} else if (italic) {
 			int halfHeight = height / 2;
-			g.clipRect(x + 1, y, cw, halfHeight);
-			g.drawImage(image, ix + 1, iy, Graphics.LEFT | Graphics.TOP);
-			g.setClip(clipX, clipY, clipWidth, clipHeight);
-			g.clipRect(x, y + halfHeight, cw, height - halfHeight);
-			g.drawImage(image, ix, iy, Graphics.LEFT | Graphics.TOP);
+			drawClipped(g, image, charX, charY, x + 1, y, cw, halfHeight, clipLeft, clipTop, clipRight, clipBottom);
+			drawClipped(g, image, charX, charY + halfHeight, x, y + halfHeight, cw, height - halfHeight,
+					clipLeft, clipTop, clipRight, clipBottom);
 		} else { // just a bold
-			g.clipRect(x, y, cw, this.height);
-			g.drawImage(image, ix, iy, Graphics.LEFT | Graphics.TOP);
-			g.setClip(clipX, clipY, clipWidth, clipHeight);
-			g.clipRect(x + 1, y, cw, this.height);
-			g.drawImage(image, ix + 1, iy, Graphics.LEFT | Graphics.TOP);
+			drawClipped(g, image, charX, charY, x, y, cw, height, clipLeft, clipTop, clipRight, clipBottom);
+			drawClipped(g, image, charX, charY, x + 1, y, cw, height, clipLeft, clipTop, clipRight, clipBottom);
+		}
+		return nextX;
+	}
+
+	/**
+	 * Draws the rectangular area of the image. The area is clipped by the saved clip rectangle,
+	 * so there is no need to restore the clip between calls.
+	 * @param g the graphics context
+	 * @param image the source image
+	 * @param imageX the x coordinate of the area in the image
+	 * @param imageY the y coordinate of the area in the image
+	 * @param x the x coordinate of the destination
+	 * @param y the y coordinate of the destination
+	 * @param width the width of the area
+	 * @param height the height of the area
+	 * @param clipLeft the left edge of the saved clip
+	 * @param clipTop the top edge of the saved clip
+	 * @param clipRight the right edge of the saved clip
+	 * @param clipBottom the bottom edge of the saved clip
+	 */
+	private static void drawClipped(Graphics g, Image image, int imageX, int imageY,
+			int x, int y, int width, int height,
+			int clipLeft, int clipTop, int clipRight, int clipBottom) {
+		int left = Math.max(x, clipLeft);
+		int top = Math.max(y, clipTop);
+		int right = Math.min(x + width, clipRight);
+		int bottom = Math.min(y + height, clipBottom);
+		if (left < right && top < bottom) {
+			g.setClip(left, top, right - left, bottom - top);
+			g.drawImage(image, x - imageX, y - imageY, Graphics.LEFT | Graphics.TOP);
 		}
-		// restore clipping
-		g.setClip(clipX, clipY, clipWidth, clipHeight);
-		return x + cw + xIndent + charWidthIncrement;
 	}
 
 	/**
@@ -476,15 +779,27 @@ public class BitmapFont {
 	 * @return the x coordinate for the next character
 	 */
 	public int drawChars(Graphics g, char[] data, int offset, int length, int x, int y, int anchors) {
-		int xx = getX(charsWidth(data, offset, length), x, anchors);
+		int xx = x;
+		if ((anchors & (Graphics.RIGHT | Graphics.HCENTER)) != 0) {
+			xx = getX(charsWidth(data, offset, length), x, anchors);
+		}
 		int yy = getY(y, anchors);
-		setColor(g.getColor());
+		FontCore.Glyphs glyphs = getGlyphs(g.getColor());
+
+		int clipX = g.getClipX();
+		int clipY = g.getClipY();
+		int clipWidth = g.getClipWidth();
+		int clipHeight = g.getClipHeight();
+		int clipRight = clipX + clipWidth;
+		int clipBottom = clipY + clipHeight;
+
 		for (int i = offset; i < offset + length; i++) {
-			xx = drawOneChar(g, data[i], xx, yy);
+			xx = drawGlyph(g, glyphs, data[i], xx, yy, clipX, clipY, clipRight, clipBottom);
 		}
+		g.setClip(clipX, clipY, clipWidth, clipHeight);
+
 		if ((style & Font.STYLE_UNDERLINED) != 0) {
-			int yU = y + this.baseline + 2;
-			g.drawLine(x, yU, xx - 1, yU);
+			drawUnderline(g, x, xx, y);
 		}
 		return xx;
 	}
@@ -498,13 +813,13 @@ public class BitmapFont {
 	 */
 	public int charWidth(char c) {
 		if (c == ' ') {
-			return spaceWidth + xIndent + charWidthIncrement; 
+			return core.spaceWidth + core.xIndent + charWidthIncrement;
 		}
-		int index  = charIndex(c);
+		int index  = core.charIndex(c);
 		if (index < 0) {
-			return spaceWidth  + xIndent + charWidthIncrement;
+			return core.spaceWidth  + core.xIndent + charWidthIncrement;
 		} else {
-			return widthes[index] + xIndent + charWidthIncrement;
+			return core.widthes[index] + core.xIndent + charWidthIncrement;
 		}
 	}
 
@@ -541,6 +856,19 @@ public class BitmapFont {
 	 * @return the length of the substring
 	 */
 	public int substringWidth(String str, int offset, int length) {
+		WidthCache cache = widthCache;
+		if (cache != null && offset == 0 && length == str.length()) {
+			int w = cache.get(str);
+			if (w < 0) {
+				w = measure(str, 0, length);
+				cache.put(str, w);
+			}
+			return w;
+		}
+		return measure(str, offset, length);
+	}
+
+	private int measure(String str, int offset, int length) {
 		int w = 0;
 		for (int i = offset; i < offset + length; i++) {
 			w += charWidth(str.charAt(i));
@@ -553,166 +881,62 @@ public class BitmapFont {
 	protected static final String PNG_SIGNATURE = "\u0089PNG\r\n\u001A\n";
 
 	/**
-	 * Loads images from the resource and replace palette chunks. 
-	 * @param name the name of the resource containing the image data in the PNG format
-	 * @param color the color
-	 * @return the created image
-	 */
-	private Image[] getColorizedImages(String name, int skip, int color) {
-		InputStream inputStream = getClass().getResourceAsStream(name);
-		DataInputStream dataStream = new DataInputStream(inputStream);
-
-		Image[] images = null;
-
-		try {
-			dataStream.skip(skip);
-			int imagesCount = dataStream.readByte();
-			images = new Image[imagesCount];
-
-			for (int i = 0; i < imagesCount; i++) {
-				int imageLength = dataStream.readShort();
-				byte [] buffer = new byte[imageLength];
-				dataStream.read(buffer, 0, imageLength);
-
-				if (!compareBytes(buffer, 0, PNG_SIGNATURE)) {
-					return null;
-				}
-
-				int paletteOffset = getChunk(buffer, 8, "PLTE");
-				if (paletteOffset >= 0) {
-					colorizePalette(buffer, paletteOffset, color);
-					images[i] = Image.createImage(buffer, 0, imageLength);
-				}
-			}
-		} catch (Exception e) {
-		} finally {
-			try {
-				inputStream.close();
-			} catch (IOException e) {};
-		}
-
-		return images;
-	}
-
-	/**
-	 * Finds the specified chunk. 
+	 * Calculates the CRC32 value. The table of the calculation is shared by all fonts.
 	 * @param buffer the byte array
 	 * @param offset the offset of the start of the data in the array
-	 * @param chunk the name of chunk (i.e. PLTE)
-	 * @return the offset of chunk (-1 if chunk isn't present)
+	 * @param count the count of bytes
+	 * @return the CRC32 value
 	 */
-	private int getChunk(byte [] buffer, int offset, String chunk) {
-		try {
-			for (;;) {
-				int dataLenght = getInt(buffer, offset);
-				if (compareBytes(buffer, offset+4, chunk)) {
-					return offset;
-				} else {
-					offset += 4 + 4 + dataLenght + 4;
-				}
-			}
-		} catch (Exception e) {};
-		return -1;
+	protected static int crc32(byte buffer[], int offset, int count) {
+		return PaletteColorizer.crc32(buffer, offset, count);
 	}
 
+	/* ================= Width cache =============== */
+
 	/**
-	 * Compare byte sequence with string
-	 * @param buffer the byte array
-	 * @param offset the offset of the start of the data in the array
-	 * @param str the string to compare with bytes in the buffer
-	 * @return true if the buffer contains the string
+	 * Turns on the cache of string widths for this style of the font. The widths of whole
+	 * strings are remembered, so labels which are measured on every repaint, i.e. for
+	 * centering, are measured once. The cache is off by default.
+	 * @param capacity the maximum number of strings in the cache, 0 turns the cache off
 	 */
-	private boolean compareBytes(byte [] buffer, int offset, String str) {
-		for (int i = 0; i < str.length(); i++) {
-			if ( ((byte) (str.charAt(i))) != buffer[i + offset]) {
-				return false;
-			}
-		}
-		return true;
+	public void setWidthCacheCapacity(int capacity) {
+		widthCache = capacity > 0 ? new WidthCache(capacity) : null;
 	}
 
 	/**
-	 * Get the integer value from the four bytes. The most signified byte go first.
-	 * @param buffer the byte array
-	 * @param offset the offset of the start of the data in the array
-	 * @return the integer value
+	 * Gets the capacity of the width cache.
+	 * @return the maximum number of strings in the cache, 0 if the cache is off
 	 */
-	private int getInt(byte [] buffer, int offset) {
-		int result = buffer[offset++] << 24;
-		result |= (buffer[offset++] << 16) & 0x00FF0000;
-		result |= (buffer[offset++] << 8)  & 0x0000FF00;
-		result |= buffer[offset] & 0x000000FF;
-
-		return result;
+	public int getWidthCacheCapacity() {
+		WidthCache cache = widthCache;
+		return cache != null ? cache.capacity() : 0;
 	}
 
 	/**
-	 * Set four bytes to the specified value. The most signified byte go first.
-	 * @param buffer the byte array
-	 * @param offset the offset of the start of the data in the array
-	 * @param value the value to set
+	 * Removes all strings from the width cache and resets its counters.
 	 */
-	private void setInt(byte [] buffer, int offset, int value) {
-		buffer[offset++] = (byte)((value & 0xFF000000) >>> 24);
-		buffer[offset++] = (byte)((value & 0x00FF0000) >>> 16);
-		buffer[offset++] = (byte)((value & 0x0000FF00) >>> 8);
-		buffer[offset]   = (byte)((value & 0x000000FF));
+	public void clearWidthCache() {
+		WidthCache cache = widthCache;
+		if (cache != null) {
+			cache.clear();
+		}
 	}
 
 	/**
-	 * Replaces black color in the palette chunk to the specified color.
-	 * @param buffer the byte array
-	 * @param offset the offset of the start of the data in the array
-	 * @param color the color to replace
+	 * Gets the number of measurements taken from the width cache.
+	 * @return the number of cache hits
 	 */
-	private void colorizePalette(byte [] buffer, int offset, int color) {
-		int dataLength = getInt(buffer, offset);
-		int dataOffset = offset + 8;
-
-		int r = (color & 0x00FF0000) >>> 16;
-		int g = (color & 0x0000FF00) >>> 8;
-		int b = (color & 0x000000FF);
-
-		for (int i = 0; i < dataLength / 3; i++) {
-			int pR = buffer[dataOffset+0] & 0xFF;
-			int pG = buffer[dataOffset+1] & 0xFF;
-			int pB = buffer[dataOffset+2] & 0xFF;
-
-			int brightness = (pR + pG + pB) / 3;
-
-			buffer[dataOffset++] = (byte) (r + (brightness * (255-r)) / 255); // red
-			buffer[dataOffset++] = (byte) (g + (brightness * (255-g)) / 255); // green
-			buffer[dataOffset++] = (byte) (b + (brightness * (255-b)) / 255); // blue
-		}
-
-		int crc = crc32(buffer, offset + 4, dataLength + 4);
-		setInt(buffer, offset + 8 + dataLength, crc);
+	public int getWidthCacheHits() {
+		WidthCache cache = widthCache;
+		return cache != null ? cache.getHits() : 0;
 	}
 
-	/* CRC32 calculations */
-
-	private static final int CRC32_POLYNOMIAL = 0xEDB88320;
-
 	/**
-	 * Calculates the CRC32 value. This functions doesn't use a table for reasons of memory saving.
-	 * @param buffer the byte array
-	 * @param offset the offset of the start of the data in the array
-	 * @param count the count of bytes
-	 * @return the CRC32 value
+	 * Gets the number of measurements which weren't found in the width cache.
+	 * @return the number of cache misses
 	 */
-	protected static int crc32(byte buffer[], int offset, int count) {
-		int crc = 0xFFFFFFFF;
-		while (count-- != 0) {
-			int t = (crc ^ buffer[offset++]) & 0xFF;
-			for (int i = 8; i > 0; i--) {
-				if ((t & 1) == 1) {
-					t = (t >>> 1) ^ CRC32_POLYNOMIAL;
-				} else {
-					t >>>= 1;
-				}
-			}
-			crc = (crc >>> 8) ^ t;
-		}
-		return crc  ^ 0xFFFFFFFF;
+	public int getWidthCacheMisses() {
+		WidthCache cache = widthCache;
+		return cache != null ? cache.getMisses() : 0;
 	}
 }
@@ -0,0 +1,1185 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.lcdui;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Hashtable;
+import java.util.Vector;
+import javax.microedition.lcdui.Font;
+import javax.microedition.lcdui.Image;
+
+/**
+ * <p>The shared part of a bitmap font: metrics, the character map, images and
+ * the color caches. All styles of the font use the same core.</p>
+ * 
+ * <p>The core doesn't change after loading, except the caches which are synchronized,
+ * so a font can be used by several threads at once. The state which depends
+ * on the color is kept in immutable Glyphs objects.</p>
+ * 
+ * <p>A lazy font keeps only the PNG data of images. Images of the plain style are decoded
+ * when a character of the image is drawn first time, the least recently used images
+ * are released when the decoded images exceed the budget.</p>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+final class FontCore {
+	private final static int MAX_INDEX_PAGES = 4;
+
+	/**
+	 * The first version of the format stores only widths of characters, the positions
+	 * of characters are calculated from sizes of images. It is written with the zero version.
+	 */
+	final static int VERSION_1 = 0;
+	/**
+	 * The second version stores the character map sorted by codes, the rectangle and
+	 * the page of every character and the offset of the palette chunk of every image.
+	 */
+	final static int VERSION_2 = 2;
+	/**
+	 * The flag of the character map of the second version: coordinates take two bytes, not one.
+	 */
+	final static int WIDE_COORDINATES = 1;
+	/**
+	 * The flag of the character map of the second version: every character has the index
+	 * of its image, else all characters are on the first one.
+	 */
+	final static int MANY_PAGES = 2;
+
+	final static int GLYPH_STYLE_MASK = Font.STYLE_BOLD | Font.STYLE_ITALIC;
+	final static int STYLE_MASK = GLYPH_STYLE_MASK | Font.STYLE_UNDERLINED;
+
+	String imageName;
+	int imagesOffset = 0;
+	PaletteColorizer[] colorizers;
+	Image[] baseImages;
+	/**
+	 * Sizes of images, they are known before images are decoded
+	 */
+	int[] imageWidths, imageHeights;
+	/**
+	 * Offsets of the palette chunks in images, -1 if they aren't known
+	 */
+	private int[] paletteOffsets;
+
+	byte version;
+	int height;
+	int baseline;
+	int xIndent;
+	int yIndent;
+	int spaceWidth;
+
+	String characterMap;
+	private char[][] indexPages;
+	private char[] sortedChars;
+	private char[] sortedIndexes;
+	int[] widthes, x, y, idx;
+
+	/**
+	 * Interned styles of the font
+	 */
+	final BitmapFont[] fonts = new BitmapFont[STYLE_MASK + 1];
+
+	private boolean prerendered;
+	private int colorCacheCapacity;
+	private final ColorCache[] colorCaches = new ColorCache[GLYPH_STYLE_MASK + 1];
+	private final Glyphs[] blackGlyphs = new Glyphs[GLYPH_STYLE_MASK + 1];
+	private final ColorCache[] outlineCaches = new ColorCache[GLYPH_STYLE_MASK + 1];
+
+	private boolean lazy;
+	private int pageBudget;
+	private int decodedSize;
+	/**
+	 * The counter of uses of lazy images, it is a hint for releasing of images
+	 */
+	private int pageClock;
+	private final Vector decodedPages = new Vector();
+
+	/**
+	 * Reads the font from the data. Images are decoded from the array without copying,
+	 * the retained data of images is kept in the array too, so the array must not be changed.
+	 * Images of the lazy font aren't decoded while loading, its data is always retained.
+	 * @param data the array containing the font data
+	 * @param offset the offset of the font data in the array
+	 * @param length the length of the font data
+	 * @param colorCacheCapacity the maximum color cache size
+	 * @param retainData true to keep the font images data in memory
+	 * @param pageBudget the maximum size of decoded images of the lazy font in bytes,
+	 * -1 to decode all images while loading
+	 * @throws FontFormatException if the data is damaged or the version isn't supported
+	 */
+	void load(byte[] data, int offset, int length, int colorCacheCapacity, boolean retainData,
+			int pageBudget) throws FontFormatException {
+		this.lazy = pageBudget >= 0;
+		this.pageBudget = pageBudget;
+		retainData |= lazy;
+
+		ByteArrayInputStream stream = new ByteArrayInputStream(data, offset, length);
+		DataInputStream input = new DataInputStream(stream);
+
+		try {
+			this.version = input.readByte();
+			if (version != VERSION_1 && version != VERSION_2) {
+				throw new FontFormatException("Unsupported version " + version);
+			}
+			this.height = input.readByte();
+			this.baseline = input.readByte();
+			this.xIndent = input.readByte();
+			this.yIndent = input.readByte();
+			this.spaceWidth = input.readByte();
+
+			if (version == VERSION_2) {
+				readCharacters(input);
+			} else {
+				readWidthes(input);
+			}
+		} catch (FontFormatException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new FontFormatException("The font data is truncated");
+		}
+		buildCharIndex();
+
+		// the header, the character map and widthes are followed by images
+		imagesOffset = length - stream.available();
+
+		// decode font images right from the array
+		int[] bounds = getImageBounds(data, offset + imagesOffset, offset + length);
+		int imagesCount = bounds.length / 3;
+		Image[] images = lazy ? null : new Image[imagesCount];
+		imageWidths = new int[imagesCount];
+		imageHeights = new int[imagesCount];
+		paletteOffsets = new int[imagesCount];
+		if (retainData) {
+			colorizers = new PaletteColorizer[imagesCount];
+		}
+
+		for (int i = 0; i < imagesCount; i++) {
+			int imageOffset = bounds[i * 3];
+			int imageLength = bounds[i * 3 + 1];
+			paletteOffsets[i] = bounds[i * 3 + 2];
+			try {
+				if (lazy) {
+					// sizes are taken from the header chunk of the PNG
+					if (!PaletteColorizer.isChunk(data, imageOffset + 8, imageOffset + imageLength, "IHDR")) {
+						throw new IllegalArgumentException();
+					}
+					imageWidths[i] = PaletteColorizer.getInt(data, imageOffset + 16);
+					imageHeights[i] = PaletteColorizer.getInt(data, imageOffset + 20);
+				} else {
+					images[i] = Image.createImage(data, imageOffset, imageLength);
+					imageWidths[i] = images[i].getWidth();
+					imageHeights[i] = images[i].getHeight();
+				}
+				if (retainData) {
+					colorizers[i] = new PaletteColorizer(data, imageOffset, imageLength, paletteOffsets[i]);
+				}
+			} catch (RuntimeException e) {
+				// damaged chunks may fail the decoding by any runtime exception
+				throw new FontFormatException("The image " + i + " can't be decoded");
+			}
+		}
+
+		if (version == VERSION_2) {
+			for (int i = 0; i < idx.length; i++) {
+				if (idx[i] >= imagesCount || x[i] + widthes[i] > imageWidths[idx[i]]
+						|| y[i] + height > imageHeights[idx[i]]) {
+					throw new FontFormatException("The character " + i + " doesn't fit the image");
+				}
+			}
+		} else {
+			calculateCoordinates();
+		}
+
+		this.baseImages = images;
+		this.colorCacheCapacity = colorCacheCapacity;
+		colorCaches[Font.STYLE_PLAIN] = new ColorCache(colorCacheCapacity);
+		Glyphs layout = new Glyphs(0, images, x, y, idx, 0, 0, false, 0, null);
+		blackGlyphs[Font.STYLE_PLAIN] = lazy
+				? new Glyphs(0, new Image[imagesCount], layout, new int[imagesCount]) : layout;
+	}
+
+	/**
+	 * Finds images in the font data. Each image is preceded by its length, images
+	 * of the second version are preceded by the offset of the palette chunk too.
+	 * @param data the array containing the font data
+	 * @param offset the offset of the images in the array
+	 * @param end the offset of the end of the font data in the array
+	 * @return the offset, the length and the palette offset (-1 if it isn't known)
+	 * of every image
+	 * @throws FontFormatException if images are truncated
+	 */
+	private int[] getImageBounds(byte[] data, int offset, int end) throws FontFormatException {
+		int imagesCount = offset < end ? data[offset++] : 0;
+		if (imagesCount <= 0) {
+			throw new FontFormatException("The font has no images");
+		}
+		int headerLength = version == VERSION_2 ? 6 : 2;
+		int[] bounds = new int[imagesCount * 3];
+		for (int i = 0; i < imagesCount; i++) {
+			if (offset + headerLength > end) {
+				throw new FontFormatException("The image " + i + " is truncated");
+			}
+			int paletteOffset = -1;
+			int imageLength;
+			if (version == VERSION_2) {
+				paletteOffset = (short) ((data[offset] << 8) | (data[offset + 1] & 0xFF));
+				imageLength = PaletteColorizer.getInt(data, offset + 2);
+			} else {
+				imageLength = (short) ((data[offset] << 8) | (data[offset + 1] & 0xFF));
+			}
+			offset += headerLength;
+			if (imageLength < 0 || imageLength > end - offset) {
+				throw new FontFormatException("The image " + i + " is truncated");
+			}
+			bounds[i * 3] = offset;
+			bounds[i * 3 + 1] = imageLength;
+			bounds[i * 3 + 2] = paletteOffset;
+			offset += imageLength;
+		}
+		return bounds;
+	}
+
+	/**
+	 * Reads all data of the stream by as few reads as the stream allows.
+	 * The size of the buffer is taken from the number of available bytes.
+	 * @param input the stream
+	 * @return the data
+	 * @throws IOException if the stream can't be read
+	 */
+	static byte[] readFully(InputStream input) throws IOException {
+		byte[] buffer = new byte[Math.max(input.available(), 256)];
+		int size = 0;
+		for (;;) {
+			if (size == buffer.length) {
+				// the buffer is full, check the end of the stream before growing it
+				int b = input.read();
+				if (b < 0) {
+					break;
+				}
+				byte[] newBuffer = new byte[buffer.length * 2];
+				System.arraycopy(buffer, 0, newBuffer, 0, size);
+				buffer = newBuffer;
+				buffer[size++] = (byte) b;
+			}
+			int n = input.read(buffer, size, buffer.length - size);
+			if (n < 0) {
+				break;
+			}
+			size += n;
+		}
+		if (size < buffer.length) {
+			byte[] result = new byte[size];
+			System.arraycopy(buffer, 0, result, 0, size);
+			buffer = result;
+		}
+		return buffer;
+	}
+
+	/**
+	 * Reads the character map and widthes of characters of the first version.
+	 * Coordinates are calculated after loading of images.
+	 * @param data the stream
+	 * @throws IOException if the data can't be read
+	 */
+	private void readWidthes(DataInputStream data) throws IOException {
+		characterMap = data.readUTF();
+
+		int count = characterMap.length();
+
+		// read characters widthes
+		this.widthes = new int[count];
+		this.x = new int[count];
+		this.y = new int[count];
+		this.idx = new int[count];
+
+		for (int i = 0; i < count; i++) {
+			widthes[i] = data.readByte();
+		}
+	}
+
+	/**
+	 * Reads the sorted character map and rectangles of characters of the second version.
+	 * Each character takes the width, the x and y coordinates and the index of the image,
+	 * the flags of the map tell the size of coordinates and if the index is stored.
+	 * @param data the stream
+	 * @throws IOException if the data can't be read
+	 * @throws FontFormatException if the map isn't sorted
+	 */
+	private void readCharacters(DataInputStream data) throws IOException {
+		int flags = data.readUnsignedByte();
+		int count = data.readUnsignedShort();
+		char[] chars = new char[count];
+		for (int i = 0; i < count; i++) {
+			chars[i] = data.readChar();
+			if (i > 0 && chars[i] <= chars[i - 1]) {
+				throw new FontFormatException("The character map isn't sorted");
+			}
+		}
+		characterMap = new String(chars);
+
+		this.widthes = new int[count];
+		this.x = new int[count];
+		this.y = new int[count];
+		this.idx = new int[count];
+
+		for (int i = 0; i < count; i++) {
+			widthes[i] = data.readUnsignedByte();
+			if ((flags & WIDE_COORDINATES) != 0) {
+				x[i] = data.readUnsignedShort();
+				y[i] = data.readUnsignedShort();
+			} else {
+				x[i] = data.readUnsignedByte();
+				y[i] = data.readUnsignedByte();
+			}
+			if ((flags & MANY_PAGES) != 0) {
+				idx[i] = data.readUnsignedByte();
+			}
+		}
+	}
+
+	/**
+	 * Calculates coordinates of characters of the first version. Characters are placed
+	 * in rows of the font height one after another, a character which doesn't fit the rest
+	 * of the row starts the next row.
+	 * @throws FontFormatException if characters don't fit the images
+	 */
+	private void calculateCoordinates() throws FontFormatException {
+		int count = widthes.length;
+		int curX = 0, curY = 0, curIdx = 0;
+		int curImageWidth = imageWidths[0];
+		int curImageHeight = imageHeights[0];
+
+		for (int i = 0; i < count; i++) {
+			if (widthes[i] < 0) {
+				// negative width points to another character
+				int sourceIndex =  - widthes[i];
+				if (sourceIndex >= count) {
+					throw new FontFormatException("Wrong width of the character " + i);
+				}
+				widthes[i] = widthes[sourceIndex];
+				x[i] = x[sourceIndex];
+				y[i] = y[sourceIndex];
+				idx[i] = idx[sourceIndex];
+			} else {
+				if (curX + widthes[i] > curImageWidth) {
+					curX = 0;
+					curY += height;
+					// the row must fit the page, a row starting at its bottom is on the next page
+					if (curY + height > curImageHeight) {
+						curY = 0;
+						curIdx++;
+						if (curIdx == imageWidths.length) {
+							throw new FontFormatException("Characters don't fit the images");
+						}
+						curImageWidth = imageWidths[curIdx];
+						curImageHeight = imageHeights[curIdx];
+					}
+				}
+
+				x[i] = curX;
+				y[i] = curY;
+				idx[i] = curIdx;
+				curX += widthes[i];
+			}
+		}
+	}
+
+	/**
+	 * Gets the index of the character.
+	 * @param c the character
+	 * @return the index of the character
+	 */
+	int charIndex(char c) {
+		if (indexPages != null) {
+			char[] page = indexPages[c >>> 8];
+			return page == null ? -1 : page[c & 0xFF] - 1;
+		}
+		int low = 0;
+		int high = sortedChars.length - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			char m = sortedChars[middle];
+			if (m < c) {
+				low = middle + 1;
+			} else if (m > c) {
+				high = middle - 1;
+			} else {
+				return sortedIndexes != null ? sortedIndexes[middle] : middle;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Builds the lookup table for charIndex(). Characters are grouped in pages by the high byte
+	 * of the code. If the character map uses only a few pages, every page is a table indexed
+	 * by the low byte of the code. Otherwise the characters are sorted for the binary search,
+	 * the map of the second version is sorted already and indexes are positions in it.
+	 */
+	private void buildCharIndex() {
+		int count = characterMap.length();
+		boolean[] usedPages = new boolean[256];
+		int pagesCount = 0;
+		for (int i = 0; i < count; i++) {
+			int page = characterMap.charAt(i) >>> 8;
+			if (!usedPages[page]) {
+				usedPages[page] = true;
+				pagesCount++;
+			}
+		}
+
+		if (pagesCount <= MAX_INDEX_PAGES) {
+			indexPages = new char[256][];
+			// go backward, so the first occurrence of a character wins as in indexOf()
+			for (int i = count - 1; i >= 0; i--) {
+				char c = characterMap.charAt(i);
+				char[] page = indexPages[c >>> 8];
+				if (page == null) {
+					page = indexPages[c >>> 8] = new char[256];
+				}
+				page[c & 0xFF] = (char) (i + 1); // zero means "no character"
+			}
+		} else if (version == VERSION_2) {
+			sortedChars = characterMap.toCharArray();
+		} else {
+			// the insertion sort is stable and fast for maps which are almost sorted already
+			char[] chars = new char[count];
+			char[] indexes = new char[count];
+			int size = 0;
+			for (int i = 0; i < count; i++) {
+				char c = characterMap.charAt(i);
+				int j = size;
+				while (j > 0 && chars[j - 1] > c) {
+					chars[j] = chars[j - 1];
+					indexes[j] = indexes[j - 1];
+					j--;
+				}
+				if (j > 0 && chars[j - 1] == c) {
+					// duplicate, the first occurrence is already in the table
+					System.arraycopy(chars, j + 1, chars, j, size - j);
+					System.arraycopy(indexes, j + 1, indexes, j, size - j);
+					continue;
+				}
+				chars[j] = c;
+				indexes[j] = (char) i;
+				size++;
+			}
+			sortedChars = new char[size];
+			sortedIndexes = new char[size];
+			System.arraycopy(chars, 0, sortedChars, 0, size);
+			System.arraycopy(indexes, 0, sortedIndexes, 0, size);
+		}
+	}
+
+	/**
+	 * Gets the font of the specified style, creates it at the first call.
+	 * @param font any font of this core
+	 * @param style the style
+	 * @return the font
+	 */
+	synchronized BitmapFont getFont(BitmapFont font, int style) {
+		style &= STYLE_MASK;
+		BitmapFont result = fonts[style];
+		if (result == null) {
+			result = new BitmapFont(font, style);
+			fonts[style] = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Turns on or off the prerendering of the styles.
+	 * @param prerendered true to prerender the styles
+	 */
+	synchronized void setPrerendered(boolean prerendered) {
+		this.prerendered = prerendered;
+		if (!prerendered) {
+			// release prerendered images
+			for (int i = 0; i < blackGlyphs.length; i++) {
+				if (i != Font.STYLE_PLAIN) {
+					blackGlyphs[i] = null;
+					colorCaches[i] = null;
+				}
+			}
+		}
+	}
+
+	synchronized boolean isPrerendered() {
+		return prerendered;
+	}
+
+	/**
+	 * Gets the images of the specified color. Styled images are used if the style
+	 * is prerendered, otherwise images of the plain style are returned.
+	 * @param style the style of the font
+	 * @param color the color
+	 * @return the glyphs
+	 */
+	Glyphs getGlyphs(int style, int color) {
+		return getGlyphs(style, color, false);
+	}
+
+	/**
+	 * Gets the images of the specified color.
+	 * @param style the style of the font
+	 * @param color the color
+	 * @param prerendered true to get prerendered styled images even if the styles
+	 * of the font aren't prerendered
+	 * @return the glyphs
+	 */
+	Glyphs getGlyphs(int style, int color, boolean prerendered) {
+		color &= 0x00FFFFFF;
+		style &= GLYPH_STYLE_MASK;
+
+		Glyphs black;
+		ColorCache cache;
+		synchronized (this) {
+			if (!prerendered && !this.prerendered) {
+				style = Font.STYLE_PLAIN;
+			}
+			black = blackGlyphs[style];
+			if (black == null) {
+				black = blackGlyphs[style] = prerender(style);
+				colorCaches[style] = new ColorCache(colorCacheCapacity);
+			}
+			cache = colorCaches[style];
+		}
+		if (color == 0x00000000) {
+			return black;
+		}
+
+		Glyphs glyphs = cache.get(color);
+		if (glyphs == null) {
+			// create images out of the lock, the cache keeps the first created ones
+			if (style != Font.STYLE_PLAIN) {
+				Image[] images = getImages(getGlyphs(Font.STYLE_PLAIN, color));
+				glyphs = new Glyphs(color, prerenderImages(style, black, images), black);
+			} else if (lazy) {
+				int count = black.images.length;
+				glyphs = new Glyphs(color, new Image[count], black, new int[count]);
+			} else {
+				glyphs = new Glyphs(color, getColorizedImages(color), black);
+			}
+			glyphs = cache.put(glyphs);
+		}
+		return glyphs;
+	}
+
+	/**
+	 * Gets the outline images of the specified color. The outline of a character
+	 * is the character dilated by one pixel in all directions, so each character
+	 * of the outline is 2 pixels wider and 2 pixels higher than the styled character.
+	 * Outline images are created at the first use of the color.
+	 * @param style the style of the font
+	 * @param color the color of the outline
+	 * @return the glyphs of the outline
+	 */
+	Glyphs getOutlineGlyphs(int style, int color) {
+		color &= 0x00FFFFFF;
+		style &= GLYPH_STYLE_MASK;
+
+		ColorCache cache;
+		synchronized (this) {
+			cache = outlineCaches[style];
+			if (cache == null) {
+				cache = outlineCaches[style] = new ColorCache(colorCacheCapacity);
+			}
+		}
+		Glyphs glyphs = cache.get(color);
+		if (glyphs == null) {
+			Glyphs source = getGlyphs(style, color, true);
+			glyphs = cache.put(outline(source));
+		}
+		return glyphs;
+	}
+
+	/* ================= Prerendering of styles =============== */
+
+	/**
+	 * Lays out the prerendered characters and prerenders the black images.
+	 * @param style the style
+	 * @return the black glyphs of the style
+	 */
+	private Glyphs prerender(int style) {
+		boolean bold = (style & Font.STYLE_BOLD) != 0;
+		boolean italic = (style & Font.STYLE_ITALIC) != 0;
+		Glyphs layout = layout((bold ? 1 : 0) + (italic ? 1 : 0), 0,
+				style != Font.STYLE_PLAIN);
+		return new Glyphs(0, prerenderImages(style, layout, getImages(blackGlyphs[Font.STYLE_PLAIN])), layout);
+	}
+
+	/**
+	 * Lays out prerendered characters. Each character gets a cell which is bigger
+	 * than the character by the number of pixels the effect adds. Cells are placed by rows,
+	 * characters which refer to the same image get the same cell.
+	 * @param extraWidth the width added to each character
+	 * @param extraHeight the height added to each character
+	 * @param prerendered true if the style is prerendered to the cells
+	 * @return the glyphs without images, the sizes of the pages are in the pageHeights
+	 * and the pageWidth fields
+	 */
+	private Glyphs layout(int extraWidth, int extraHeight, boolean prerendered) {
+		int count = widthes.length;
+		int cellHeight = height + extraHeight;
+
+		int pageWidth = 0;
+		int pageHeight = 0;
+		for (int i = 0; i < imageWidths.length; i++) {
+			pageWidth = Math.max(pageWidth, imageWidths[i]);
+			pageHeight = Math.max(pageHeight, imageHeights[i]);
+		}
+		for (int i = 0; i < count; i++) {
+			pageWidth = Math.max(pageWidth, widthes[i] + extraWidth);
+		}
+		int rowsPerPage = Math.max(1, pageHeight / cellHeight);
+
+		int[] cellX = new int[count];
+		int[] cellY = new int[count];
+		int[] cellIdx = new int[count];
+
+		Hashtable cells = new Hashtable();
+		int curX = 0, curRow = 0, curIdx = 0;
+		for (int i = 0; i < count; i++) {
+			// wide coordinates take up to 16 bits each
+			Long key = new Long(((long) idx[i] << 32) | ((long) y[i] << 16) | x[i]);
+			Integer source = (Integer) cells.get(key);
+			if (source != null && widthes[source.intValue()] == widthes[i]) {
+				int j = source.intValue();
+				cellX[i] = cellX[j];
+				cellY[i] = cellY[j];
+				cellIdx[i] = cellIdx[j];
+				continue;
+			}
+			int cellWidth = widthes[i] + extraWidth;
+			if (curX + cellWidth > pageWidth) {
+				curX = 0;
+				curRow++;
+				if (curRow >= rowsPerPage) {
+					curRow = 0;
+					curIdx++;
+				}
+			}
+			cellX[i] = curX;
+			cellY[i] = curRow * cellHeight;
+			cellIdx[i] = curIdx;
+			curX += cellWidth;
+			cells.put(key, new Integer(i));
+		}
+
+		int[] pageHeights = new int[curIdx + 1];
+		for (int i = 0; i < curIdx; i++) {
+			pageHeights[i] = rowsPerPage * cellHeight;
+		}
+		pageHeights[curIdx] = (curRow + 1) * cellHeight;
+
+		return new Glyphs(0, null, cellX, cellY, cellIdx, extraWidth, extraHeight,
+				prerendered, pageWidth, pageHeights);
+	}
+
+	/**
+	 * Draws styled characters from the source images to the new images
+	 * by the prerendered layout.
+	 * @param style the style
+	 * @param layout the glyphs with the prerendered layout
+	 * @param images the source images
+	 * @return the prerendered images
+	 */
+	private Image[] prerenderImages(int style, Glyphs layout, Image[] images) {
+		boolean bold = (style & Font.STYLE_BOLD) != 0;
+		boolean italic = (style & Font.STYLE_ITALIC) != 0;
+
+		int[][] sources = getPixels(images);
+		int pageWidth = layout.pageWidth;
+		int[][] pages = createPages(layout);
+
+		int halfHeight = height / 2;
+		for (int i = 0; i < widthes.length; i++) {
+			int[] source = sources[idx[i]];
+			int sourceWidth = images[idx[i]].getWidth();
+			int sourceHeight = images[idx[i]].getHeight();
+			int[] page = pages[layout.idx[i]];
+			int cw = widthes[i];
+			int cellWidth = cw + layout.extraWidth;
+
+			for (int row = 0; row < height && y[i] + row < sourceHeight; row++) {
+				int sourceOffset = (y[i] + row) * sourceWidth + x[i];
+				int pageOffset = (layout.y[i] + row) * pageWidth + layout.x[i];
+				boolean top = row < halfHeight;
+				for (int col = 0; col < cellWidth; col++) {
+					int pixel;
+					// the same order of drawings as in BitmapFont.drawGlyph()
+					if (bold && italic) {
+						pixel = getPixel(source, sourceOffset, cw, col - 1);
+						pixel = blendPixels(getPixel(source, sourceOffset, cw, top ? col - 2 : col), pixel);
+					} else if (italic) {
+						pixel = getPixel(source, sourceOffset, cw, top ? col - 1 : col);
+					} else {
+						pixel = getPixel(source, sourceOffset, cw, col);
+						pixel = blendPixels(getPixel(source, sourceOffset, cw, col - 1), pixel);
+					}
+					page[pageOffset + col] = pixel;
+				}
+			}
+		}
+		return createImages(layout, pages);
+	}
+
+	/**
+	 * Creates the outline of the glyphs. Each pixel of the outline is the result of drawing
+	 * of the source character with the offset by one pixel in eight directions.
+	 * @param source the styled glyphs in the color of the outline
+	 * @return the outline glyphs
+	 */
+	private Glyphs outline(Glyphs source) {
+		Glyphs layout = layout(source.extraWidth + 2, source.extraHeight + 2, true);
+
+		Image[] sourceImages = getImages(source);
+		int[][] sources = getPixels(sourceImages);
+		int pageWidth = layout.pageWidth;
+		int[][] pages = createPages(layout);
+
+		int sourceHeight = height + source.extraHeight;
+		for (int i = 0; i < widthes.length; i++) {
+			int[] sourcePage = sources[source.idx[i]];
+			int sourcePageWidth = sourceImages[source.idx[i]].getWidth();
+			int sourcePageHeight = sourceImages[source.idx[i]].getHeight();
+			int sourceWidth = widthes[i] + source.extraWidth;
+			int[] page = pages[layout.idx[i]];
+
+			for (int row = 0; row < sourceHeight + 2; row++) {
+				int pageOffset = (layout.y[i] + row) * pageWidth + layout.x[i];
+				for (int col = 0; col < sourceWidth + 2; col++) {
+					int pixel = 0;
+					// the same order as drawings of the outlined string by offsets
+					for (int dy = -1; dy <= 1; dy++) {
+						int sourceRow = row - 1 - dy;
+						if (sourceRow < 0 || sourceRow >= sourceHeight
+								|| source.y[i] + sourceRow >= sourcePageHeight) {
+							continue;
+						}
+						int sourceOffset = (source.y[i] + sourceRow) * sourcePageWidth + source.x[i];
+						for (int dx = -1; dx <= 1; dx++) {
+							if (dx != 0 || dy != 0) {
+								pixel = blendPixels(getPixel(sourcePage, sourceOffset, sourceWidth, col - 1 - dx),
+										pixel);
+							}
+						}
+					}
+					page[pageOffset + col] = pixel;
+				}
+			}
+		}
+		return new Glyphs(source.color, createImages(layout, pages), layout);
+	}
+
+	private static int[][] getPixels(Image[] images) {
+		int[][] pixels = new int[images.length][];
+		for (int i = 0; i < images.length; i++) {
+			int w = images[i].getWidth();
+			pixels[i] = new int[w * images[i].getHeight()];
+			images[i].getRGB(pixels[i], 0, w, 0, 0, w, images[i].getHeight());
+		}
+		return pixels;
+	}
+
+	private static int[][] createPages(Glyphs layout) {
+		int[][] pages = new int[layout.pageHeights.length][];
+		for (int i = 0; i < pages.length; i++) {
+			pages[i] = new int[layout.pageWidth * layout.pageHeights[i]];
+		}
+		return pages;
+	}
+
+	private static Image[] createImages(Glyphs layout, int[][] pages) {
+		Image[] result = new Image[pages.length];
+		for (int i = 0; i < pages.length; i++) {
+			result[i] = Image.createRGBImage(pages[i], layout.pageWidth, layout.pageHeights[i], true);
+		}
+		return result;
+	}
+
+	private static int getPixel(int[] source, int offset, int width, int col) {
+		return col >= 0 && col < width ? source[offset + col] : 0;
+	}
+
+	/**
+	 * Blends two ARGB pixels as the top pixel is drawn over the bottom one.
+	 * @param top the top pixel
+	 * @param bottom the bottom pixel
+	 * @return the result pixel
+	 */
+	private static int blendPixels(int top, int bottom) {
+		int topAlpha = top >>> 24;
+		int bottomAlpha = bottom >>> 24;
+		if (topAlpha == 0xFF || bottomAlpha == 0) {
+			return top;
+		} else if (topAlpha == 0) {
+			return bottom;
+		}
+		int bottomWeight = bottomAlpha * (255 - topAlpha) / 255;
+		int alpha = topAlpha + bottomWeight;
+		int result = alpha << 24;
+		for (int shift = 0; shift <= 16; shift += 8) {
+			int t = (top >>> shift) & 0xFF;
+			int b = (bottom >>> shift) & 0xFF;
+			result |= ((t * topAlpha + b * bottomWeight) / alpha) << shift;
+		}
+		return result;
+	}
+
+	/* ================= Lazy decoding of images =============== */
+
+	/**
+	 * Changes the budget of decoded images of the lazy font, the least recently used
+	 * images are released if they don't fit it.
+	 * @param pageBudget the maximum size of decoded images in bytes
+	 */
+	synchronized void setPageBudget(int pageBudget) {
+		if (lazy) {
+			this.pageBudget = pageBudget;
+			releasePages(null, 0);
+		}
+	}
+
+	synchronized int getDecodedSize() {
+		return decodedSize;
+	}
+
+	/**
+	 * Gets the image of the lazy glyphs, the image is decoded if it isn't decoded yet
+	 * or it was released.
+	 * @param glyphs the glyphs having the times of use of pages
+	 * @param page the index of the image
+	 * @return the image
+	 */
+	Image getPage(Glyphs glyphs, int page) {
+		// the time of use is only a hint for releasing, so it is updated without the lock
+		glyphs.pageUsage[page] = ++pageClock;
+		Image image = glyphs.images[page];
+		if (image == null) {
+			image = decodePage(glyphs, page);
+		}
+		return image;
+	}
+
+	/**
+	 * Gets all images of the glyphs, images of the lazy glyphs are decoded.
+	 * @param glyphs the glyphs
+	 * @return the images
+	 */
+	private Image[] getImages(Glyphs glyphs) {
+		if (glyphs.pageUsage == null) {
+			return glyphs.images;
+		}
+		Image[] images = new Image[glyphs.images.length];
+		for (int i = 0; i < images.length; i++) {
+			images[i] = getPage(glyphs, i);
+		}
+		return images;
+	}
+
+	private synchronized Image decodePage(Glyphs glyphs, int page) {
+		Image image = glyphs.images[page];
+		if (image != null) {
+			return image; // decoded by other thread
+		}
+		image = glyphs.color == 0 ? null : colorizers[page].createImage(glyphs.color);
+		if (image == null) {
+			// black glyphs and images without a palette are drawn in the original colors
+			image = colorizers[page].createImage();
+		}
+		DecodedPage decoded = new DecodedPage(glyphs, page, imageWidths[page] * imageHeights[page] * 4);
+		decodedPages.addElement(decoded);
+		decodedSize += decoded.size;
+		glyphs.images[page] = image;
+		releasePages(glyphs, page);
+		return image;
+	}
+
+	/**
+	 * Releases the least recently used images until the decoded images fit the budget.
+	 * Images of glyphs removed from color caches aren't used any more, so they go first.
+	 * @param glyphs the glyphs of the image which is kept
+	 * @param page the index of the image which is kept
+	 */
+	private void releasePages(Glyphs glyphs, int page) {
+		ColorCache cache = colorCaches[Font.STYLE_PLAIN];
+		while (decodedSize > pageBudget) {
+			int oldest = -1;
+			int oldestUsage = 0;
+			boolean oldestDropped = false;
+			for (int i = 0; i < decodedPages.size(); i++) {
+				DecodedPage decoded = (DecodedPage) decodedPages.elementAt(i);
+				if (decoded.glyphs == glyphs && decoded.page == page) {
+					continue;
+				}
+				int usage = decoded.glyphs.pageUsage[decoded.page];
+				boolean dropped = decoded.glyphs != blackGlyphs[Font.STYLE_PLAIN]
+						&& !cache.contains(decoded.glyphs);
+				if (oldest < 0 || (dropped && !oldestDropped)
+						|| (dropped == oldestDropped && usage - oldestUsage < 0)) {
+					oldest = i;
+					oldestUsage = usage;
+					oldestDropped = dropped;
+				}
+			}
+			if (oldest < 0) {
+				break;
+			}
+			DecodedPage decoded = (DecodedPage) decodedPages.elementAt(oldest);
+			decodedPages.removeElementAt(oldest);
+			decoded.glyphs.images[decoded.page] = null;
+			decodedSize -= decoded.size;
+		}
+	}
+
+	/**
+	 * The decoded image of the lazy font
+	 */
+	private static final class DecodedPage {
+		final Glyphs glyphs;
+		final int page;
+		/**
+		 * The estimated size of the decoded image in bytes
+		 */
+		final int size;
+
+		DecodedPage(Glyphs glyphs, int page, int size) {
+			this.glyphs = glyphs;
+			this.page = page;
+			this.size = size;
+		}
+	}
+
+	/* ================= Working with the PNG =============== */
+
+	/**
+	 * Creates colorized images of the font. Images are created from the retained data
+	 * if it is present, otherwise they are loaded from the resource. If an image can't be
+	 * colorized (the resource can't be read or the image has no palette), the base image
+	 * is used, so the text is drawn in the original color of the font.
+	 * @param color the color
+	 * @return the created images, never null
+	 */
+	private Image[] getColorizedImages(int color) {
+		Image[] images;
+		if (colorizers == null) {
+			images = getColorizedImages(this.imageName, this.imagesOffset, color);
+		} else {
+			images = new Image[colorizers.length];
+			for (int i = 0; i < colorizers.length; i++) {
+				images[i] = colorizers[i].createImage(color);
+			}
+		}
+		Image[] result = new Image[baseImages.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = images != null && i < images.length && images[i] != null ? images[i] : baseImages[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Loads images from the resource and replace palette chunks. The resource is read
+	 * at once and images are colorized in the read data.
+	 * @param name the name of the resource containing the image data in the PNG format
+	 * @param skip the offset of the images in the resource
+	 * @param color the color
+	 * @return the created images or null if the resource can't be read
+	 */
+	private Image[] getColorizedImages(String name, int skip, int color) {
+		InputStream inputStream = name != null ? getClass().getResourceAsStream(name) : null;
+		if (inputStream == null) {
+			return null;
+		}
+
+		Image[] images = null;
+
+		try {
+			byte[] data = readFully(inputStream);
+			int[] bounds = getImageBounds(data, skip, data.length);
+			images = new Image[bounds.length / 3];
+
+			for (int i = 0; i < images.length; i++) {
+				images[i] = new PaletteColorizer(data, bounds[i * 3], bounds[i * 3 + 1],
+						paletteOffsets[i]).createImage(color);
+			}
+		} catch (Exception e) {
+			return null;
+		} finally {
+			try {
+				inputStream.close();
+			} catch (IOException e) {};
+		}
+
+		return images;
+	}
+
+	/**
+	 * Images of the font in one color with the layout of characters on them.
+	 * Glyphs are immutable, so they can be shared by threads. Only images of the lazy
+	 * font are decoded and released, it is done under the lock of the core.
+	 */
+	static final class Glyphs {
+		final int color;
+		final Image[] images;
+		final int[] x, y, idx;
+		/**
+		 * The width which is added to each character in prerendered images
+		 */
+		final int extraWidth;
+		/**
+		 * The height which is added to each character in prerendered images
+		 */
+		final int extraHeight;
+		/**
+		 * True if the style is prerendered to the images
+		 */
+		final boolean prerendered;
+		/**
+		 * Sizes of the images, they are used while the images are created
+		 */
+		final int pageWidth;
+		final int[] pageHeights;
+		/**
+		 * Times of the last use of images of the lazy font, null if all images are present
+		 */
+		final int[] pageUsage;
+
+		Glyphs(int color, Image[] images, int[] x, int[] y, int[] idx, int extraWidth, int extraHeight,
+				boolean prerendered, int pageWidth, int[] pageHeights) {
+			this.color = color;
+			this.images = images;
+			this.x = x;
+			this.y = y;
+			this.idx = idx;
+			this.extraWidth = extraWidth;
+			this.extraHeight = extraHeight;
+			this.prerendered = prerendered;
+			this.pageWidth = pageWidth;
+			this.pageHeights = pageHeights;
+			this.pageUsage = null;
+		}
+
+		/**
+		 * Creates glyphs with the layout of other glyphs.
+		 * @param color the color
+		 * @param images the images
+		 * @param layout the glyphs with the layout
+		 */
+		Glyphs(int color, Image[] images, Glyphs layout) {
+			this(color, images, layout, null);
+		}
+
+		/**
+		 * Creates glyphs with the layout of other glyphs. Images of the lazy glyphs
+		 * are decoded on demand.
+		 * @param color the color
+		 * @param images the images, the array of lazy glyphs is empty
+		 * @param layout the glyphs with the layout
+		 * @param pageUsage the array for times of use of images, null if all images are present
+		 */
+		Glyphs(int color, Image[] images, Glyphs layout, int[] pageUsage) {
+			this.color = color;
+			this.images = images;
+			this.x = layout.x;
+			this.y = layout.y;
+			this.idx = layout.idx;
+			this.extraWidth = layout.extraWidth;
+			this.extraHeight = layout.extraHeight;
+			this.prerendered = layout.prerendered;
+			this.pageWidth = layout.pageWidth;
+			this.pageHeights = layout.pageHeights;
+			this.pageUsage = pageUsage;
+		}
+	}
+
+	/**
+	 * The cache of colorized images. The least recently used color is replaced
+	 * when the cache is full.
+	 */
+	private static final class ColorCache {
+		private int usageCount;
+		private int[] usage;
+		private Glyphs[] glyphs;
+
+		ColorCache(int capacity) {
+			usage = new int[capacity];
+			glyphs = new Glyphs[capacity];
+		}
+
+		synchronized Glyphs get(int color) {
+			for (int i = 0; i < glyphs.length; i++) {
+				if (glyphs[i] != null && glyphs[i].color == color) {
+					usage[i] = usageCount++;
+					return glyphs[i];
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Checks if the glyphs are in the cache.
+		 * @param colorGlyphs the glyphs
+		 * @return false if the glyphs are replaced by other ones or weren't put
+		 */
+		synchronized boolean contains(Glyphs colorGlyphs) {
+			for (int i = 0; i < glyphs.length; i++) {
+				if (glyphs[i] == colorGlyphs) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Puts the glyphs to the cache. If the cache contains the same color already
+		 * (the other thread has put it), the cached glyphs are returned.
+		 * @param colorGlyphs the glyphs
+		 * @return the cached glyphs
+		 */
+		synchronized Glyphs put(Glyphs colorGlyphs) {
+			int cacheItemIndex = -1;
+			int minUsage = Integer.MAX_VALUE;
+			for (int i = 0; i < glyphs.length; i++) {
+				if (glyphs[i] == null) {
+					// cache item is empty
+					cacheItemIndex = i;
+					break;
+				} else if (glyphs[i].color == colorGlyphs.color) {
+					return glyphs[i];
+				} else if (usage[i] < minUsage) {
+					minUsage = usage[i];
+					cacheItemIndex = i;
+				}
+			}
+			if (cacheItemIndex >= 0) {
+				glyphs[cacheItemIndex] = colorGlyphs;
+				usage[cacheItemIndex] = usageCount++;
+			}
+			return colorGlyphs;
+		}
+	}
+}
@@ -34,24 +34,59 @@ import javax.microedition.lcdui.Graphics;
  * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
  */
 public class FontFacade {
+	/**
+	 * The ellipsis is drawn at the end of the trimmed text
+	 */
+	public static final int TRIM_END = 0;
+	/**
+	 * The ellipsis is drawn in the middle of the trimmed text
+	 */
+	public static final int TRIM_MIDDLE = 1;
+	/**
+	 * The ellipsis is drawn at the start of the trimmed text
+	 */
+	public static final int TRIM_START = 2;
+
+	private static final String ELLIPSIS = "...";
+
 	private Object font;
-	private boolean isBitmapFont;
+	private TextRenderer renderer;
+	// the same renderer if it is a bitmap font
+	private BitmapFont bitmapFont;
+	// the width cache of the facade, it is kept while the renderer draws by the same font
+	private WidthCache widthCache;
 
 	/**
 	 * Creates an instance of the FontFacade
-	 * @param font the font. It must be an instance of Font or BitmapFont
+	 * @param font the font. It must be an instance of Font, BitmapFont or TextRenderer
 	 */
 	public FontFacade(Object font) {
 		setFont(font);
 	}
 
+	/**
+	 * Creates the renderer for the font.
+	 * @param font the font. It must be an instance of Font, BitmapFont or TextRenderer
+	 * @return the renderer, or null if the font is null
+	 */
+	public static TextRenderer createRenderer(Object font) {
+		if (font instanceof TextRenderer) {
+			return (TextRenderer)font;
+		} else if (font != null) {
+			return new NativeFontRenderer((Font)font);
+		}
+		return null;
+	}
+
 	/**
 	 * Sets the font.
-	 * @param font the font. It must be an instance of Font or BitmapFont
+	 * @param font the font. It must be an instance of Font, BitmapFont or TextRenderer
 	 */
 	public void setFont(Object font) {
-		this.font = font;
-		isBitmapFont = font instanceof BitmapFont;
+		if (font != this.font) {
+			setRenderer(createRenderer(font));
+			this.font = font;
+		}
 	}
 
 	/**
@@ -62,6 +97,38 @@ public class FontFacade {
 		return font;
 	}
 
+	/**
+	 * Sets the renderer of the text. The width cache is cleared only if the renderer
+	 * draws by another font.
+	 * @param renderer the renderer
+	 */
+	public void setRenderer(TextRenderer renderer) {
+		boolean changed = !isSameRenderer(this.renderer, renderer);
+		this.font = renderer;
+		this.renderer = renderer;
+		bitmapFont = renderer instanceof BitmapFont ? (BitmapFont)renderer : null;
+		if (changed && widthCache != null) {
+			widthCache = new WidthCache(widthCache.capacity());
+		}
+	}
+
+	private static boolean isSameRenderer(TextRenderer a, TextRenderer b) {
+		if (a == b) {
+			return true;
+		}
+		// native renderers are created for every setFont() call
+		return a instanceof NativeFontRenderer && b instanceof NativeFontRenderer
+				&& ((NativeFontRenderer)a).getFont() == ((NativeFontRenderer)b).getFont();
+	}
+
+	/**
+	 * Gets the renderer of the text.
+	 * @return the renderer
+	 */
+	public TextRenderer getRenderer() {
+		return renderer;
+	}
+
 	/**
 	 * Draws one character.
 	 * @param g the graphics context
@@ -71,12 +138,7 @@ public class FontFacade {
 	 * @param anchors the anchor point for positioning of the text
 	 */
 	public void drawChar(Graphics g, char c, int x, int y, int anchors) {
-		if (isBitmapFont) {
-			((BitmapFont)font).drawChar(g, c, x, y);
-		} else if (font instanceof Font) {
-			g.setFont((Font)font);
-			g.drawChar(c, x, y, anchors);
-		}
+		renderer.drawChar(g, c, x, y, anchors);
 	}
 
 	/**
@@ -89,7 +151,7 @@ public class FontFacade {
 	 * @return the x coordinate for the next string
 	 */
 	public int drawString(Graphics g, String text, int x, int y, int anchors) {
-		return drawSubstring(g,text,0,text.length(),x,y,anchors);
+		return renderer.drawString(g, text, x, y, anchors);
 	}
 
 	/**
@@ -105,15 +167,7 @@ public class FontFacade {
 	 */
 	public int drawSubstring(Graphics g, String text, int offset, int length,
 			int x, int y, int anchors) {
-		if (isBitmapFont) {
-			return ((BitmapFont)font).drawSubstring(g, text, offset, length, x, y, anchors);
-		} else if (font instanceof Font) {
-			g.setFont((Font)font);
-			g.drawSubstring(text, offset, length, x, y, anchors);
-			return ((Font)font).substringWidth(text, length, offset);
-		} else {
-			return 0;
-		}
+		return renderer.drawSubstring(g, text, offset, length, x, y, anchors);
 	}
 
 	/**
@@ -122,11 +176,7 @@ public class FontFacade {
 	 * @return the width in pixels
 	 */
 	public int charWidth(char c) {
-		if (isBitmapFont) {
-			return ((BitmapFont)font).charWidth(c);
-		} else {
-			return ((Font)font).charWidth(c);
-		}
+		return renderer.charWidth(c);
 	}
 
 	/**
@@ -138,11 +188,7 @@ public class FontFacade {
 	 * @return the width in pixels
 	 */
 	public int charsWidth(char[] ch, int offset, int length) {
-		if (isBitmapFont) {
-			return ((BitmapFont)font).charsWidth(ch, offset, length);
-		} else {
-			return ((Font)font).charsWidth(ch, offset, length);
-		}		
+		return renderer.charsWidth(ch, offset, length);
 	}
 
 	/**
@@ -151,7 +197,16 @@ public class FontFacade {
 	 * @return the width in pixels
 	 */
 	public int stringWidth(String str) {
-		return substringWidth(str, 0, str.length());
+		WidthCache cache = widthCache;
+		if (cache == null) {
+			return renderer.stringWidth(str);
+		}
+		int w = cache.get(str);
+		if (w < 0) {
+			w = renderer.stringWidth(str);
+			cache.put(str, w);
+		}
+		return w;
 	}
 
 	/**
@@ -162,11 +217,7 @@ public class FontFacade {
 	 * @return the width in pixels
 	 */
 	public int substringWidth(String str, int offset, int length) {
-		if (isBitmapFont) {
-			return ((BitmapFont)font).substringWidth(str, offset, length);
-		} else {
-			return ((Font)font).substringWidth(str, offset, length);
-		}		
+		return renderer.substringWidth(str, offset, length);
 	}
 
 	/**
@@ -174,15 +225,12 @@ public class FontFacade {
 	 * @return the height in pixels
 	 */
 	public int getFontHeight() {
-		if (isBitmapFont) {
-			return ((BitmapFont)font).getHeight();			
-		} else {
-			return ((Font)font).getHeight();
-		}
+		return renderer.getHeight();
 	}
 
 	/**
-	 * Draws the string with a limitation by the width.
+	 * Draws the string with a limitation by the width. The end of the text
+	 * is replaced by the ellipsis if the text is too long.
 	 * @param g the graphics context
 	 * @param text the text to be drawn
 	 * @param x the x coordinate of the anchor point
@@ -191,25 +239,108 @@ public class FontFacade {
 	 * @param anchors the anchor point for positioning the text
 	 */
 	public void drawTrimmedString(Graphics g, String text, int x, int y, int width, int anchors) {
-		int textWidth = stringWidth(text);
-
-		if (textWidth <= width) {
-			drawString(g, text, x, y, anchors);
-		} else {
-			textWidth = 3 * charWidth('.');
-			int n = 0;
-			for (; n < text.length(); n++) {
-				textWidth += charWidth(text.charAt(n));
-				if (textWidth > width) {
+		drawTrimmedString(g, text, x, y, width, anchors, TRIM_END);
+	}
+
+	/**
+	 * Draws the string with a limitation by the width. If the text is too long, a part of it
+	 * is replaced by the ellipsis. The head of the text is measured in one pass which stops at
+	 * the width limit, the tail is measured from the end only if the ellipsis isn't at the end.
+	 * Parts of the text are drawn without creating new strings.
+	 * @param g the graphics context
+	 * @param text the text to be drawn
+	 * @param x the x coordinate of the anchor point
+	 * @param y the y coordinate of the anchor point
+	 * @param width the width limit in pixels
+	 * @param anchors the anchor point for positioning the text
+	 * @param mode the place of the ellipsis: TRIM_END, TRIM_MIDDLE or TRIM_START
+	 * @return the x coordinate for the next string
+	 */
+	public int drawTrimmedString(Graphics g, String text, int x, int y, int width, int anchors, int mode) {
+		// parts are drawn by renderers which need both anchors, 0 means TOP | LEFT
+		if ((anchors & (Graphics.TOP | Graphics.BOTTOM | Graphics.BASELINE)) == 0) {
+			anchors |= Graphics.TOP;
+		}
+		if ((anchors & (Graphics.LEFT | Graphics.RIGHT | Graphics.HCENTER)) == 0) {
+			anchors |= Graphics.LEFT;
+		}
+		int length = text.length();
+		int available = width - substringWidth(ELLIPSIS, 0, ELLIPSIS.length());
+		// the head fitting the ellipsis is found in the same pass
+		int headLength = 0, headWidth = 0;
+		int textWidth = 0;
+		int n = 0;
+		for (; n < length; n++) {
+			int w = charWidth(text.charAt(n));
+			if (headLength == n && textWidth + w <= available) {
+				headLength++;
+				headWidth += w;
+			}
+			textWidth += w;
+			if (textWidth > width) {
+				break;
+			}
+		}
+		if (n == length) {
+			return drawString(g, text, x, y, anchors);
+		}
+
+		if (mode == TRIM_START || mode == TRIM_MIDDLE) {
+			headLength = 0;
+			headWidth = 0;
+		}
+		int tailOffset = length, tailWidth = 0;
+		if (mode == TRIM_START) {
+			for (; tailOffset > 0; tailOffset--) {
+				int w = charWidth(text.charAt(tailOffset - 1));
+				if (tailWidth + w > available) {
+					break;
+				}
+				tailWidth += w;
+			}
+		} else if (mode == TRIM_MIDDLE) {
+			// take characters by turns from the shorter side
+			while (headLength < tailOffset) {
+				boolean head = headWidth <= tailWidth;
+				int w = charWidth(text.charAt(head ? headLength : tailOffset - 1));
+				if (headWidth + tailWidth + w > available) {
 					break;
 				}
+				if (head) {
+					headWidth += w;
+					headLength++;
+				} else {
+					tailWidth += w;
+					tailOffset--;
+				}
 			}
-			x = drawString(g, text.substring(0, n) + "...", x, y, anchors);
 		}
+
+		// position the whole trimmed text, then draw its parts from the left
+		int ellipsisWidth = width - available;
+		if ((anchors & Graphics.RIGHT) != 0) {
+			x -= headWidth + ellipsisWidth + tailWidth;
+		} else if ((anchors & Graphics.HCENTER) != 0) {
+			x -= (headWidth + ellipsisWidth + tailWidth) / 2;
+		}
+		anchors = (anchors & ~(Graphics.RIGHT | Graphics.HCENTER)) | Graphics.LEFT;
+
+		if (headLength > 0) {
+			drawSubstring(g, text, 0, headLength, x, y, anchors);
+			x += headWidth;
+		}
+		drawSubstring(g, ELLIPSIS, 0, ELLIPSIS.length(), x, y, anchors);
+		x += ellipsisWidth;
+		if (tailOffset < length) {
+			drawSubstring(g, text, tailOffset, length - tailOffset, x, y, anchors);
+			x += tailWidth;
+		}
+		return x;
 	}
 
 	/**
-	 * Draws the string with a limitation by the width.
+	 * Draws the string with the outline. Bitmap fonts draw the outline from
+	 * the prepared outline images, other renderers draw the string eight times.
 	 * @param g the graphics context
 	 * @param outlineColor the color of text outline
 	 * @param text the text to be drawn
@@ -218,11 +349,15 @@ public class FontFacade {
 	 * @param anchors the anchor point for positioning the text
 	 */
 	public void drawOutlinedString(Graphics g, int outlineColor, String text, int x, int y, int anchors) {
+		if (bitmapFont != null) {
+			bitmapFont.drawOutlinedString(g, outlineColor, text, x, y, anchors);
+			return;
+		}
 		int textColor = g.getColor();
 		g.setColor(outlineColor);
 		for (int dy = -1; dy <= 1; dy++) {
 			for (int dx = -1; dx <= 1; dx++) {
-				if (x != 0 || y != 0) {
+				if (dx != 0 || dy != 0) {
 					drawString(g, text, x + dx, y + dy, anchors);
 				}
 			}
@@ -230,4 +365,63 @@ public class FontFacade {
 		g.setColor(textColor);
 		drawString(g, text, x, y, anchors);
 	}
+
+	/**
+	 * Draws the string with the shadow moved one pixel to the right and to the bottom.
+	 * @param g the graphics context
+	 * @param shadowColor the color of the shadow
+	 * @param text the text to be drawn
+	 * @param x the x coordinate of the anchor point
+	 * @param y the y coordinate of the anchor point
+	 * @param anchors the anchor point for positioning the text
+	 */
+	public void drawShadowedString(Graphics g, int shadowColor, String text, int x, int y, int anchors) {
+		if (bitmapFont != null) {
+			bitmapFont.drawShadowedString(g, shadowColor, text, x, y, anchors);
+			return;
+		}
+		int textColor = g.getColor();
+		g.setColor(shadowColor);
+		drawString(g, text, x + 1, y + 1, anchors);
+		g.setColor(textColor);
+		drawString(g, text, x, y, anchors);
+	}
+
+	/**
+	 * Turns on the cache of string widths. The cache belongs to the facade for every
+	 * renderer, so the shared BitmapFont and other users of it aren't affected. It is
+	 * cleared when the font is changed, the capacity is kept.
+	 * @param capacity the maximum number of strings in the cache, 0 turns the cache off
+	 */
+	public void setWidthCacheCapacity(int capacity) {
+		widthCache = capacity > 0 ? new WidthCache(capacity) : null;
+	}
+
+	/**
+	 * Removes all strings from the width cache and resets its counters.
+	 */
+	public void clearWidthCache() {
+		WidthCache cache = widthCache;
+		if (cache != null) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Gets the number of measurements taken from the width cache.
+	 * @return the number of cache hits
+	 */
+	public int getWidthCacheHits() {
+		WidthCache cache = widthCache;
+		return cache != null ? cache.getHits() : 0;
+	}
+
+	/**
+	 * Gets the number of measurements which weren't found in the width cache.
+	 * @return the number of cache misses
+	 */
+	public int getWidthCacheMisses() {
+		WidthCache cache = widthCache;
+		return cache != null ? cache.getMisses() : 0;
+	}
 }
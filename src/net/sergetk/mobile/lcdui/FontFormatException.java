@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.lcdui;
+
+import java.io.IOException;
+
+/**
+ * <p>FontFormatException is thrown when the font data is damaged or has
+ * an unsupported format, i.e. the data is truncated or an image can't be decoded.</p>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+public class FontFormatException extends IOException {
+	/**
+	 * Creates the exception without the message.
+	 */
+	public FontFormatException() {
+		super();
+	}
+
+	/**
+	 * Creates the exception with the message.
+	 * @param message the message
+	 */
+	public FontFormatException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.lcdui;
+
+/**
+ * <p>Points where the lines of the text can be broken inside words. The index
+ * keeps a byte of flags for every character, so the line breaking looks the points
+ * up instead of scanning words again. Words are hyphenated once, when the points
+ * near them are looked up the first time.</p>
+ * 
+ * <p>A word containing the soft hyphen (U+00AD) or the zero width space (U+200B)
+ * is broken only after them. Other words are hyphenated by the rules.</p>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+public final class HyphenationIndex {
+	/**
+	 * Soft hyphen: the line can be broken after it, the hyphen is drawn
+	 */
+	public static final char SOFT_HYPHEN = '\u00AD';
+	/**
+	 * Zero width space: the line can be broken after it without the hyphen
+	 */
+	public static final char ZERO_WIDTH_SPACE = '\u200B';
+
+	private static final byte BREAK = 1;
+	private static final byte HYPHEN = 2;
+	// the minimum number of characters hyphenated at once
+	private static final int CHUNK = 256;
+
+	private byte[] flags = new byte[64];
+	private int length;
+	// the characters before this index are hyphenated, it is the end of a word
+	private int marked;
+	private String text;
+	private HyphenationRules rules;
+
+	/**
+	 * Marks the break before the character. Rules must mark only
+	 * characters of the word they are called for.
+	 * @param index the index of the character
+	 * @param hyphen true if the hyphen is drawn at the end of the line
+	 */
+	public void setBreak(int index, boolean hyphen) {
+		flags[index] = hyphen ? BREAK | HYPHEN : BREAK;
+	}
+
+	/**
+	 * Checks if the line can be broken before the character.
+	 * @param index the index of the character
+	 * @return true if it is a break point
+	 */
+	public boolean isBreak(int index) {
+		if (index >= marked) {
+			markTo(index);
+		}
+		return (flags[index] & BREAK) != 0;
+	}
+
+	/**
+	 * Checks if the hyphen is drawn when the line is broken before the character.
+	 * @param index the index of the character
+	 * @return true if the hyphen is needed
+	 */
+	public boolean needsHyphen(int index) {
+		if (index >= marked) {
+			markTo(index);
+		}
+		return (flags[index] & HYPHEN) != 0;
+	}
+
+	/**
+	 * Checks if the character is invisible and has zero width.
+	 * @param c the character
+	 * @return true for the soft hyphen and the zero width space
+	 */
+	public static boolean isInvisible(char c) {
+		return c == SOFT_HYPHEN || c == ZERO_WIDTH_SPACE;
+	}
+
+	/**
+	 * Builds the index for the text.
+	 * @param text the text
+	 * @param rules the rules of hyphenation
+	 */
+	void build(String text, HyphenationRules rules) {
+		ensureCapacity(text.length());
+		this.text = text;
+		this.rules = rules;
+		length = text.length();
+		marked = 0;
+	}
+
+	/**
+	 * Updates the index after the text is changed. Only the changed words
+	 * are hyphenated again.
+	 * @param text the new text
+	 * @param rules the rules of hyphenation
+	 * @param start the index of the first changed character
+	 * @param oldLength the number of the replaced characters
+	 * @param newLength the number of the new characters
+	 */
+	void update(String text, HyphenationRules rules, int start, int oldLength, int newLength) {
+		int newTextLength = text.length();
+		if (start < 0 || start + oldLength > length || newTextLength != length - oldLength + newLength) {
+			build(text, rules);
+			return;
+		}
+		ensureCapacity(newTextLength);
+		this.text = text;
+		this.rules = rules;
+		length = newTextLength;
+		if (start > marked) {
+			// only the words which aren't hyphenated yet are changed
+			return;
+		}
+		int tail = marked - start - oldLength;
+		if (tail > 0) {
+			System.arraycopy(flags, start + oldLength, flags, start + newLength, tail);
+			marked += newLength - oldLength;
+		} else {
+			marked = start;
+		}
+
+		int from = start;
+		while (from > 0 && !isSeparator(text.charAt(from - 1))) {
+			from--;
+		}
+		int to = start + newLength;
+		while (to < length && !isSeparator(text.charAt(to))) {
+			to++;
+		}
+		mark(from, to);
+		if (to > marked) {
+			marked = to;
+		}
+	}
+
+	/**
+	 * Hyphenates the words up to the word containing the character.
+	 * @param index the index of the character
+	 */
+	private void markTo(int index) {
+		int to = Math.min(length, Math.max(index + 1, marked + CHUNK));
+		while (to < length && !isSeparator(text.charAt(to))) {
+			to++;
+		}
+		mark(marked, to);
+		marked = to;
+	}
+
+	private void mark(int from, int to) {
+		for (int i = from; i < to; i++) {
+			flags[i] = 0;
+		}
+		int p = from;
+		while (p < to) {
+			while (p < to && isSeparator(text.charAt(p))) {
+				p++;
+			}
+			int start = p;
+			boolean explicit = false;
+			while (p < to && !isSeparator(text.charAt(p))) {
+				char c = text.charAt(p);
+				if (isInvisible(c)) {
+					explicit = true;
+					if (p + 1 < to) {
+						setBreak(p + 1, c == SOFT_HYPHEN);
+					}
+				}
+				p++;
+			}
+			if (!explicit && p > start && rules != null) {
+				rules.hyphenate(text, start, p, this);
+			}
+		}
+	}
+
+	private static boolean isSeparator(char c) {
+		return c == ' ' || c == '\n' || c == '\r';
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (flags.length < capacity) {
+			byte[] newFlags = new byte[Math.max(capacity, flags.length * 2)];
+			System.arraycopy(flags, 0, newFlags, 0, length);
+			flags = newFlags;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.lcdui;
+
+import java.util.Hashtable;
+
+/**
+ * <p>The cache of formatted texts shared by all MultiText objects, TileCache keeps
+ * images of tiles in it too. The size of each layout is estimated in bytes, the least
+ * recently used layouts are removed when the total size exceeds the budget.</p>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+final class LayoutCache {
+	private int budget;
+	private int size;
+	private final Hashtable entries = new Hashtable();
+	// the head of the circular usage list, head.next is the most recently used entry
+	private final Entry head = new Entry(null, null, 0);
+
+	private int hits;
+	private int misses;
+
+	/**
+	 * Creates the cache.
+	 * @param budget the maximum total size of layouts in bytes
+	 */
+	LayoutCache(int budget) {
+		this.budget = budget;
+		head.prev = head.next = head;
+	}
+
+	synchronized int getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Changes the budget, layouts are removed if they don't fit it.
+	 * @param budget the maximum total size of layouts in bytes
+	 */
+	synchronized void setBudget(int budget) {
+		this.budget = budget;
+		trim();
+	}
+
+	/**
+	 * Gets the layout.
+	 * @param key the key of the layout
+	 * @return the layout or null if it isn't in the cache
+	 */
+	synchronized Object get(Object key) {
+		Entry entry = (Entry) entries.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		unlink(entry);
+		linkFirst(entry);
+		return entry.value;
+	}
+
+	/**
+	 * Puts the layout to the cache. The layout isn't cached if it is bigger than the budget.
+	 * @param key the key of the layout
+	 * @param value the layout
+	 * @param valueSize the estimated size of the layout in bytes
+	 */
+	synchronized void put(Object key, Object value, int valueSize) {
+		Entry entry = (Entry) entries.remove(key);
+		if (entry != null) {
+			unlink(entry);
+			size -= entry.size;
+		}
+		if (valueSize > budget) {
+			return;
+		}
+		entry = new Entry(key, value, valueSize);
+		entries.put(key, entry);
+		linkFirst(entry);
+		size += valueSize;
+		trim();
+	}
+
+	/**
+	 * Removes the layout from the cache.
+	 * @param key the key of the layout
+	 */
+	synchronized void remove(Object key) {
+		Entry entry = (Entry) entries.remove(key);
+		if (entry != null) {
+			unlink(entry);
+			size -= entry.size;
+		}
+	}
+
+	synchronized void clear() {
+		entries.clear();
+		head.prev = head.next = head;
+		size = 0;
+		hits = misses = 0;
+	}
+
+	synchronized int getSize() {
+		return size;
+	}
+
+	synchronized int getHits() {
+		return hits;
+	}
+
+	synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Removes the least recently used layouts until the cache fits the budget.
+	 */
+	private void trim() {
+		while (size > budget && head.prev != head) {
+			Entry last = head.prev;
+			unlink(last);
+			entries.remove(last.key);
+			size -= last.size;
+		}
+	}
+
+	private void unlink(Entry entry) {
+		entry.prev.next = entry.next;
+		entry.next.prev = entry.prev;
+	}
+
+	private void linkFirst(Entry entry) {
+		entry.next = head.next;
+		entry.prev = head;
+		head.next.prev = entry;
+		head.next = entry;
+	}
+
+	private static final class Entry {
+		final Object key;
+		final Object value;
+		final int size;
+		Entry prev, next;
+
+		Entry(Object key, Object value, int size) {
+			this.key = key;
+			this.value = value;
+			this.size = size;
+		}
+	}
+}
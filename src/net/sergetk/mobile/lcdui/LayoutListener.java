@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.lcdui;
+
+/**
+ * <p>The listener of the text formatting in the background thread, see
+ * MultiText.formatAsync(). Methods are called from the background thread.</p>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+public interface LayoutListener {
+	/**
+	 * Called when the formatting progress changes.
+	 * @param text the text being formatted
+	 * @param percent the formatted part of the text in percents
+	 */
+	void layoutProgress(MultiText text, int percent);
+
+	/**
+	 * Called when the new layout of the text is ready to be drawn.
+	 * It isn't called if the formatting is cancelled.
+	 * @param text the formatted text
+	 */
+	void layoutFinished(MultiText text);
+
+	/**
+	 * Called when the formatting fails, for example if the memory runs out.
+	 * The old layout of the text is kept.
+	 * @param text the text
+	 * @param error the error
+	 */
+	void layoutFailed(MultiText text, Throwable error);
+}
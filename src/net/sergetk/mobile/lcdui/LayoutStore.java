@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.lcdui;
+
+/**
+ * <p>The parts of the formatted text stored in parallel arrays. Arrays grow twice
+ * when they are full and are reused by the next formatting, so the formatting
+ * doesn't create objects for the parts. The parts are read by the index.</p>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+public final class LayoutStore {
+	/**
+	 * The flag of a part ending with the hyphen
+	 */
+	static final int HYPHEN = 1;
+
+	int[] start;
+	int[] end;
+	int[] x;
+	int[] y;
+	int[] width;
+	int[] height;
+	int[] color;
+	int[] flags;
+	TextRenderer[] fonts;
+
+	int size;
+
+	/**
+	 * Creates the store.
+	 * @param capacity the initial number of parts
+	 */
+	LayoutStore(int capacity) {
+		allocate(Math.max(capacity, 1));
+	}
+
+	/**
+	 * Gets the number of parts.
+	 * @return the number of parts
+	 */
+	public int getCount() {
+		return size;
+	}
+
+	/**
+	 * Gets the index of the first character of the part.
+	 * @param index the index of the part
+	 * @return the index of the character
+	 */
+	public int getStart(int index) {
+		return start[index];
+	}
+
+	/**
+	 * Gets the index after the last character of the part.
+	 * @param index the index of the part
+	 * @return the index of the character
+	 */
+	public int getEnd(int index) {
+		return end[index];
+	}
+
+	/**
+	 * Gets the x position of the part relative to the text.
+	 * @param index the index of the part
+	 * @return the x position
+	 */
+	public int getX(int index) {
+		return x[index];
+	}
+
+	/**
+	 * Gets the y position of the part relative to the text.
+	 * @param index the index of the part
+	 * @return the y position
+	 */
+	public int getY(int index) {
+		return y[index];
+	}
+
+	/**
+	 * Gets the width of the part including the hyphen.
+	 * @param index the index of the part
+	 * @return the width in pixels
+	 */
+	public int getWidth(int index) {
+		return width[index];
+	}
+
+	/**
+	 * Gets the height of the part.
+	 * @param index the index of the part
+	 * @return the height in pixels
+	 */
+	public int getHeight(int index) {
+		return height[index];
+	}
+
+	/**
+	 * Gets the color of the part.
+	 * @param index the index of the part
+	 * @return the color
+	 */
+	public int getColor(int index) {
+		return color[index];
+	}
+
+	/**
+	 * Checks if the part ends with the hyphen.
+	 * @param index the index of the part
+	 * @return true if the hyphen is drawn after the part
+	 */
+	public boolean hasHyphen(int index) {
+		return (flags[index] & HYPHEN) != 0;
+	}
+
+	/**
+	 * Gets the renderer of the part.
+	 * @param index the index of the part
+	 * @return the renderer
+	 */
+	public TextRenderer getFont(int index) {
+		return fonts[index];
+	}
+
+	/**
+	 * Removes all parts. The arrays are kept.
+	 */
+	void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Prepares the next part. It is filled by zeros and isn't counted
+	 * until it is added by add().
+	 * @return the index of the part
+	 */
+	int open() {
+		if (size == start.length) {
+			grow(size * 2);
+		}
+		int i = size;
+		start[i] = end[i] = x[i] = y[i] = width[i] = height[i] = color[i] = flags[i] = 0;
+		fonts[i] = null;
+		return i;
+	}
+
+	/**
+	 * Adds the part prepared by open().
+	 */
+	void add() {
+		size++;
+	}
+
+	/**
+	 * Appends the parts of another store.
+	 * @param source the store
+	 * @param from the index of the first part
+	 * @param to the index after the last part
+	 * @param shift the shift of character indexes
+	 * @param dy the shift of y positions
+	 */
+	void append(LayoutStore source, int from, int to, int shift, int dy) {
+		int count = to - from;
+		if (count <= 0) {
+			return;
+		}
+		if (size + count > start.length) {
+			grow(Math.max(size * 2, size + count));
+		}
+		System.arraycopy(source.start, from, start, size, count);
+		System.arraycopy(source.end, from, end, size, count);
+		System.arraycopy(source.x, from, x, size, count);
+		System.arraycopy(source.y, from, y, size, count);
+		System.arraycopy(source.width, from, width, size, count);
+		System.arraycopy(source.height, from, height, size, count);
+		System.arraycopy(source.color, from, color, size, count);
+		System.arraycopy(source.flags, from, flags, size, count);
+		System.arraycopy(source.fonts, from, fonts, size, count);
+		if (shift != 0 || dy != 0) {
+			for (int i = size; i < size + count; i++) {
+				start[i] += shift;
+				end[i] += shift;
+				y[i] += dy;
+			}
+		}
+		size += count;
+	}
+
+	private void grow(int capacity) {
+		int[] oldStart = start, oldEnd = end, oldX = x, oldY = y;
+		int[] oldWidth = width, oldHeight = height, oldColor = color, oldFlags = flags;
+		TextRenderer[] oldFonts = fonts;
+		allocate(capacity);
+		System.arraycopy(oldStart, 0, start, 0, size);
+		System.arraycopy(oldEnd, 0, end, 0, size);
+		System.arraycopy(oldX, 0, x, 0, size);
+		System.arraycopy(oldY, 0, y, 0, size);
+		System.arraycopy(oldWidth, 0, width, 0, size);
+		System.arraycopy(oldHeight, 0, height, 0, size);
+		System.arraycopy(oldColor, 0, color, 0, size);
+		System.arraycopy(oldFlags, 0, flags, 0, size);
+		System.arraycopy(oldFonts, 0, fonts, 0, size);
+	}
+
+	private void allocate(int capacity) {
+		start = new int[capacity];
+		end = new int[capacity];
+		x = new int[capacity];
+		y = new int[capacity];
+		width = new int[capacity];
+		height = new int[capacity];
+		color = new int[capacity];
+		flags = new int[capacity];
+		fonts = new TextRenderer[capacity];
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.lcdui;
+
+import java.util.Vector;
+
+/**
+ * <p>The background thread formatting texts one by one. The thread is started
+ * when a task is posted and stops when there are no more tasks.</p>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+final class LayoutWorker implements Runnable {
+	private static final Vector queue = new Vector();
+	private static Thread thread;
+
+	/**
+	 * Adds the task to the queue.
+	 * @param task the task
+	 */
+	static void post(Task task) {
+		synchronized (queue) {
+			queue.addElement(task);
+			if (thread == null) {
+				thread = new Thread(new LayoutWorker());
+				thread.start();
+			}
+		}
+	}
+
+	public void run() {
+		try {
+			for (;;) {
+				Task task;
+				synchronized (queue) {
+					if (queue.isEmpty()) {
+						thread = null;
+						return;
+					}
+					task = (Task) queue.elementAt(0);
+					queue.removeElementAt(0);
+				}
+				if (task.isCancelled()) {
+					continue;
+				}
+				try {
+					task.copy.format();
+					if (task.text.applyLayout(task) && task.listener != null) {
+						task.listener.layoutFinished(task.text);
+					}
+				} catch (Throwable e) {
+					// the old layout is kept, the text can be formatted again
+					if (task.text.layoutFailed(task) && task.listener != null) {
+						task.listener.layoutFailed(task.text, e);
+					}
+				}
+			}
+		} finally {
+			// the thread is stopped by an error of the listener
+			synchronized (queue) {
+				if (thread == Thread.currentThread()) {
+					thread = null;
+					if (!queue.isEmpty()) {
+						thread = new Thread(new LayoutWorker());
+						thread.start();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The formatting of the copy of the text.
+	 */
+	static final class Task {
+		final MultiText text;
+		final MultiText copy;
+		final LayoutListener listener;
+		private boolean cancelled;
+		private int progress = -1;
+
+		/**
+		 * Creates the task.
+		 * @param text the text which gets the layout
+		 * @param copy the copy of the text which is formatted
+		 * @param listener the listener, can be null
+		 */
+		Task(MultiText text, MultiText copy, LayoutListener listener) {
+			this.text = text;
+			this.copy = copy;
+			this.listener = listener;
+		}
+
+		synchronized void cancel() {
+			cancelled = true;
+		}
+
+		synchronized boolean isCancelled() {
+			return cancelled;
+		}
+
+		/**
+		 * Reports the progress, it is called by the layout after every line.
+		 * @param position the number of laid out characters
+		 * @param length the length of the text
+		 * @return true if the formatting is cancelled
+		 */
+		boolean update(int position, int length) {
+			if (isCancelled()) {
+				return true;
+			}
+			int percent = length > 0 ? (int)((long)position * 100 / length) : 100;
+			if (percent != progress) {
+				progress = percent;
+				if (listener != null) {
+					listener.layoutProgress(text, percent);
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -20,8 +20,6 @@
  */
 package net.sergetk.mobile.lcdui;
 
-import java.util.Vector;
-
 import javax.microedition.lcdui.Graphics;
 import javax.microedition.lcdui.Image;
 
@@ -32,14 +30,6 @@ import javax.microedition.lcdui.Image;
  * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
  */
 public class MultiText {
-	/**
-	 * Latin and cyrillic vowels
-	 */
-	private static final String VOWELS = "aeiouy\u0430\u0435\u0451\u0438\u043E\u0443\u044B\u044D\u044E\u044F";
-	/**
-	 * Cyrillic hard and soft signs
-	 */
-	private static final String DONT_TEAR_OFF_AT_END = "\u044A\u044C'";
 	/**
 	 * Text wrapping mode: wrapping is off
 	 */
@@ -89,7 +79,7 @@ public class MultiText {
 	 */
 	public int width;
 	/**
-	 * Text font must be an instance of one of two classes: Font or BitmapFont
+	 * Text font must be an instance of Font, BitmapFont or TextRenderer
 	 */
 	public Object font;
 
@@ -110,6 +100,11 @@ public class MultiText {
 	 * Text
 	 */
 	public String text;
+	/**
+	 * If not null, the text is taken from it and its runs change the font, the color and
+	 * the alignment of the text. Edits of the styled text are formatted by format().
+	 */
+	public StyledText styledText;
 
 	public int cursorPosition;
 	public int cursorWidth;
@@ -133,6 +128,26 @@ public class MultiText {
 	 * Text wrapping mode
 	 */
 	public int wrappingMode = WRAPPING_SYLLABLES;
+	/**
+	 * Rules of hyphenation for WRAPPING_SYLLABLES mode
+	 */
+	public HyphenationRules hyphenationRules = SyllableRules.DEFAULT;
+	/**
+	 * If true, every character is measured only once: widths are accumulated for
+	 * a paragraph and ends of lines are found by the binary search in them. The layout
+	 * is the same, the mode is used when the text isn't edited and the cursor has no width.
+	 */
+	public boolean measureOnce;
+	/**
+	 * If positive, the text is laid out lazily: format() lays out lines only up to
+	 * this height plus lazyMargin, following lines are laid out when they are drawn
+	 * or requested by layoutTo(). The height is estimated until all lines are laid out.
+	 */
+	public int lazyHeight;
+	/**
+	 * The height laid out beyond the requested one in the lazy mode
+	 */
+	public int lazyMargin = 100;
 
 	private int currentTextColor;
 	private int currentTextAlignment;
@@ -140,20 +155,87 @@ public class MultiText {
 	private int currentFontHeight;
 	private int cursorPartIndex;
 
-	private Object currentFont;
+	private TextRenderer currentFont;
 	private int currentWrappingMode;
 
+	// the runs of the formatted text and the end of the current run
+	private StyledText styles;
+	private int runEnd = Integer.MAX_VALUE;
+
 	public boolean editMode;
 	public boolean underlined;
 
-	private Vector textParts = new Vector(); // text parts
+	private LayoutStore parts = new LayoutStore(16); // text parts
 	private int imageX, imageY; // image coordinates
 
-	private FontFacade fontFacade;
+	// lines of the formatted text: the index of the first character, y and the index of the first part
+	private int[] lineStarts = new int[16];
+	private int[] lineYs = new int[16];
+	private int[] lineParts = new int[16];
+	private int lineRecords;
+
+	// parameters of the last formatting, they are used to continue it
+	private int layoutMinX, layoutMaxX;
+	private int layoutImageBottom;
+	private int layoutCursorPosition;
+
+	// the previous layout of the text after the changed lines
+	private LayoutStore oldParts;
+	private boolean reflowing;
+	private int[] oldLineStarts, oldLineYs, oldLineParts;
+	private int oldLinesCount;
+	private int oldCursorPartIndex;
+	private int oldTextHeight;
+	private int syncLine;
+	// the y position of the old line joined without moving, -1 if lines are moved
+	private int joinY;
+	private int changeEnd;
+	private int changeDelta;
+
+	// hyphenation points of the text and the text and the rules they are found for
+	private HyphenationIndex hyphenation;
+	private String hyphenatedText;
+	private HyphenationRules hyphenatedRules;
+	// true if the text can contain soft hyphens or zero width spaces
+	private boolean hasInvisibleChars;
+
+	// the lazy layout stops after the line reaching this y position
+	private int layoutLimit = Integer.MAX_VALUE;
+	private boolean layoutPending;
+	// the index after the last laid out character, only complete layouts are cached
+	private int layoutEnd;
+
+	// the text of the current layout, it is drawn until the new layout is ready
+	private String formattedText;
+	// the last formatting in the background thread and the task of the copy being formatted
+	private LayoutWorker.Task pendingTask;
+	private LayoutWorker.Task task;
+
+	// accumulated widths of characters of the measured paragraph
+	private int[] advances = new int[64];
+	private int paragraphStart, paragraphEnd;
+
+	// the maximum width of lines of the last formatting
+	private int formattedWidth;
+	// changed when lines are formatted again or recolored
+	private int layoutVersion;
+	// the width of the last formatting
+	private int layoutWidth;
+
+	// the area changed since the last clearDamage(), it is empty if left >= right
+	private int damageLeft, damageTop, damageRight, damageBottom;
+	// true if the whole text is changed
+	private boolean damagedAll;
+
+	private static LayoutCache layoutCache;
+
+	// the renderer of the font and the font it is created for
+	private TextRenderer renderer;
+	private Object rendererFont;
 
 	/**
 	 * Creates a new instance of MultiText object.
-	 * @param font text font, must be an instance of Font or BitmapFont
+	 * @param font text font, must be an instance of Font, BitmapFont or TextRenderer
 	 * @param text the text
 	 * @param image the image, can be null if you don't need it
 	 */
@@ -177,6 +259,7 @@ public class MultiText {
 	/**
 	 * Gets the height of the formatted text. You must call this method only
 	 * after text had been formatted (by calling format() of setWidth()).
+	 * If the lazy layout isn't complete, the height is estimated.
 	 * @return height in pixels
 	 */
 	public int getHeight() {
@@ -186,118 +269,51 @@ public class MultiText {
 			return image.getHeight();
 	}
 
-	protected TextPart getTextPart(int index) {
-		return (TextPart)this.textParts.elementAt(index);
+	/**
+	 * Gets the version of the layout, it is changed when lines are formatted
+	 * again or recolored. Lines added by the lazy layout don't change it.
+	 * @return the version
+	 */
+	public int getLayoutVersion() {
+		return layoutVersion;
 	}
 
 	/**
-	 * Looks for splitting point for the current line.
-	 * @param part
-	 * @param start start index
-	 * @param x start x position
-	 * @param maxX maximum x value
-	 * @return split position index
+	 * Gets the parts of the formatted text. The store is reused by the next
+	 * formatting, so it must be read only until the text is formatted again.
+	 * @return the parts
 	 */
-	protected int splitBySyllables(TextPart part, int start, int x, int maxX) {
-		boolean hasVowel = false;
-		boolean eol = false;
-		boolean overrun = false;
-		boolean isVowel = false;
-
-		int hyphenWidth = fontFacade.charWidth('-');
-		maxX -= hyphenWidth;
-
-		int lastValidSplit = -1;
-		int lastValidX = 0;
-
-		int splitCandidate = -1;
-		int splitCandidateX = 0; 
-
-		int consIndex2 = -1;
-		int consX2 = 0;
-		int consCount = 0;
-
-		int p = start;
-
-		char c = text.charAt(p);
-
-		for (;;) {
-			if (p < text.length()) {
-				c = text.charAt(p);
-				if (c == ' ') {
-					eol = true;
-				} else {
-					isVowel = VOWELS.indexOf(toLowerCase(c)) != -1;
-				}
-			} else {
-				c = 0;
-				eol = true;
-			}
-
-			if (isVowel) {
-				if (hasVowel) {
-					if (consCount > 1) { // closed syllable
-						splitCandidate = consIndex2;
-						splitCandidateX = consX2;
-					} else
-						if (consCount == 1) { // opened syllable
-							splitCandidate = consIndex2;
-							splitCandidateX = consX2;
-						} else { // 
-							splitCandidate = p;
-							splitCandidateX = x;
-						}
-
-					if (splitCandidateX <= maxX) {
-						lastValidSplit = splitCandidate;
-						lastValidX = splitCandidateX;
-					} else {
-						overrun = true;
-					}
-				}
-				hasVowel = true;
-				consIndex2 = -1;
-				consCount = 0;
-			} else {
-				if (hasVowel) {
-					c = toLowerCase(c);
-					if (DONT_TEAR_OFF_AT_END.indexOf(toLowerCase(c)) < 0) {
-						consIndex2 = p;
-						consX2 = x;
-					}
-					consCount++;
-				}
-			}
-
-			if (eol) {
-				if (lastValidSplit == start + 1)
-					return -1;
-
-				if (lastValidSplit != -1) {
-					part.hasHyphen = true;
-					part.width = lastValidX - part.x + hyphenWidth;
-					part.end = lastValidSplit;
-				}
-				return lastValidSplit;
-			}
-
-			if (!overrun)
-				x += fontFacade.charWidth(c);
-			overrun = x > maxX;
-
-			p++;
-		}
+	public LayoutStore getParts() {
+		return parts;
 	}
 
 	/**
 	 * Formats the text. Call this method if you changed any parameters such as text, alignment or margins.
 	 * Note that setWidth() calls this method itself.
 	 */
-	public void format() {
+	public synchronized void format() {
+		if (pendingTask != null) {
+			pendingTask.cancel();
+			pendingTask = null;
+		}
+		this.layoutVersion++;
+		// the old lines and the new ones are changed
+		addDamage(0, 0, Math.max(width, layoutWidth), getHeight());
+		this.damagedAll = true;
+		this.layoutWidth = width;
+		this.styles = styledText;
+		if (styledText != null) {
+			text = styledText.getText();
+		}
+		this.formattedText = text;
 		this.cursorPartIndex = -1;
 		this.textHeight = 0;
-		this.textParts.removeAllElements();
-		boolean cursorFound = false;
+		this.parts.clear();
+		this.lineRecords = 0;
+		this.formattedWidth = 0;
+		this.layoutPending = false;
+		this.layoutEnd = 0;
+		this.paragraphStart = -1;
 
 		// if it is no text or text has zero width...
 		if ((text == null || text.length() == 0) && this.image == null) {
@@ -309,13 +325,8 @@ public class MultiText {
 		currentWrappingMode = wrappingMode;
 		currentTextColor = textColor;
 		nextTextAlignment = currentTextAlignment = this.textAlignment;
-		currentFont = font;
-		if (fontFacade == null) {
-			fontFacade = new FontFacade(font);
-		} else {
-			fontFacade.setFont(font);
-		}
-		currentFontHeight = fontFacade.getFontHeight();
+		currentFont = getRenderer();
+		currentFontHeight = currentFont.getHeight();
 
 		linesCount = 0;
 
@@ -349,54 +360,108 @@ public class MultiText {
 		}
 
 
-		int textLength = 0;
 		if (text == null || text.length() == 0) {
 			this.textHeight = y + bottomMargin;
 			return;
 		}
 
-		textLength= text.length();
+		layoutMinX = minX;
+		layoutMaxX = maxX;
+		layoutImageBottom = image != null ? this.imageY + imageHeight + this.imageVerticalMargin : 0;
+		layoutCursorPosition = cursorPosition;
+		hasInvisibleChars = text.indexOf(HyphenationIndex.SOFT_HYPHEN) != -1
+				|| text.indexOf(HyphenationIndex.ZERO_WIDTH_SPACE) != -1;
+
+		// the edited text changes too often to be cached
+		LayoutCache cache = layoutCache;
+		LayoutKey key = null;
+		if (cache != null && !editMode) {
+			key = new LayoutKey(this);
+			Layout layout = (Layout) cache.get(key);
+			if (layout != null) {
+				layout.restore(this);
+				return;
+			}
+		}
+
+		if (currentWrappingMode == WRAPPING_SYLLABLES) {
+			prepareHyphenation();
+		}
+		selectRun(0);
+		currentTextAlignment = nextTextAlignment;
+		addLine(0, y, 0);
+		layoutLimit = lazyHeight > 0 ? lazyHeight + lazyMargin : Integer.MAX_VALUE;
+		if (measureOnce && !editMode && cursorWidth == 0 && styles == null) {
+			layoutByWidths(0, y, minX, maxX);
+		} else {
+			layout(0, y, minX, maxX);
+		}
+
+		// the lazy or the cancelled formatting stops in the middle of the text
+		if (key != null && layoutEnd == text.length()) {
+			Layout layout = new Layout(this);
+			cache.put(key, layout, layout.size + key.size);
+		}
+	}
+
+	/**
+	 * Lays out the text from the start of a line.
+	 * @param p the index of the first character of the line
+	 * @param y the y position of the line
+	 * @param minX the left edge of the line
+	 * @param maxX the right edge of the line
+	 */
+	private void layout(int p, int y, int minX, int maxX) {
+		boolean cursorFound = cursorPartIndex != -1;
+		int textLength = text.length();
 
 		int x = minX;
 		int lineHeight = 0;
 
-		TextPart currentPart = null;
+		int currentPart = -1;
 
 		boolean isWord = false;
 		boolean isSpace = false;
 		boolean newLine = false;
 		boolean partEnds = false;
 
-		int p = 0;				// index of the current character 
 		int spaceStart = -1;
 		int wordStart = -1;
-		int wordX = 0;
 		int spaceX = 0;
 
 		int firstPartAtLine = -1;
 		int lastPartAtLine = -1;
 		int localCursorX = -1;
 
+		HyphenationIndex hyphenation = currentWrappingMode == WRAPPING_SYLLABLES ? this.hyphenation : null;
+		int hyphenWidth = hyphenation != null ? currentFont.charWidth('-') : 0;
+		int breakPoint = -1; // the last hyphenation point of the word fitting the line
+		int breakX = 0;
+
 		while (p < textLength) {
 			boolean isCursor = (!cursorFound && p == cursorPosition);
 			char c = text.charAt(p);
 
-			/* tag parsing is switched off in the current version
-			if (c == '<') {
-				if (currentPart != null) {
-					currentPart.end = p;
-					currentPart.width = x - currentPart.x;
+			if (p >= runEnd) { // the next run of the styled text
+				boolean emptyLine = firstPartAtLine == -1 && currentPart == -1;
+				selectRun(p);
+				if (emptyLine) {
+					currentTextAlignment = nextTextAlignment;
+				}
+				if (currentPart != -1) {
+					parts.end[currentPart] = p;
+					parts.width[currentPart] = x - parts.x[currentPart];
 					partEnds = true;
 				}
-
-				//p = parseTag(p + 1) - 1;
-			} else 
-			 */
-			{
+				if (hyphenation != null) {
+					hyphenWidth = currentFont.charWidth('-');
+				}
+				p--; // the character is laid out in the new style
+			} else {
 				if (c == '\n' || c == '\r') { // new line
-					if (currentPart != null) {
-						currentPart.end = p;
-						currentPart.width = x - currentPart.x;
+					if (currentPart != -1) {
+						parts.end[currentPart] = p;
+						parts.width[currentPart] = x - parts.x[currentPart];
 						partEnds = true;
 					}
 					newLine = true;
@@ -407,22 +472,22 @@ public class MultiText {
 					// new text part if:
 					// there are no any text parts
 					// or current character isn't space or part isnt first at line
-					if (currentPart == null && (editMode || !charIsSpace || firstPartAtLine != -1)) {
-						currentPart = new TextPart();
-						currentPart.start = p;
-						currentPart.x = x;
-						currentPart.y = y;
-						currentPart.font = this.currentFont;
-						currentPart.height = currentFontHeight;
-						currentPart.color = this.currentTextColor;
-						lineHeight = Math.max(lineHeight, currentPart.height);
-
-						wordStart = spaceStart = -1;
+					if (currentPart == -1 && (editMode || !charIsSpace || firstPartAtLine != -1)) {
+						currentPart = parts.open();
+						parts.start[currentPart] = p;
+						parts.x[currentPart] = x;
+						parts.y[currentPart] = y;
+						parts.fonts[currentPart] = this.currentFont;
+						parts.height[currentPart] = currentFontHeight;
+						parts.color[currentPart] = this.currentTextColor;
+						lineHeight = Math.max(lineHeight, parts.height[currentPart]);
+
+						wordStart = spaceStart = breakPoint = -1;
 						isWord = isSpace = false;
 					}
 
 					// if current part is started, process the character
-					if (currentPart != null) {
+					if (currentPart != -1) {
 						if (charIsSpace) {
 							if (!isSpace) {
 								isSpace = true;
@@ -435,11 +500,17 @@ public class MultiText {
 								isSpace = false;
 								isWord = true;
 								wordStart = p;
-								wordX = x;
+								breakPoint = -1;
 							}
 						}
 
-						int charWidth = fontFacade.charWidth(c);
+						if (hyphenation != null && isWord && p > wordStart && hyphenation.isBreak(p)
+								&& x <= (hyphenation.needsHyphen(p) ? maxX - hyphenWidth : maxX)) {
+							breakPoint = p;
+							breakX = x;
+						}
+
+						int charWidth = HyphenationIndex.isInvisible(c) ? 0 : currentFont.charWidth(c);
 						if (isCursor) {
 							localCursorX = x;
 							charWidth += cursorWidth;
@@ -451,7 +522,7 @@ public class MultiText {
 							switch (this.currentWrappingMode) {
 							case WRAPPING_NONE: {
 								split = p;
-								currentPart.width = x - currentPart.x;							
+								parts.width[currentPart] = x - parts.x[currentPart];							
 							} break;
 
 							case WRAPPING_WORDS: {
@@ -473,16 +544,16 @@ public class MultiText {
 								{
 									if (spaceStart != -1) { // split by spaces
 										split = spaceStart;
-										currentPart.width = spaceX - currentPart.x;
+										parts.width[currentPart] = spaceX - parts.x[currentPart];
 									}
 									else {
 										if (firstPartAtLine != -1) {
-											p = currentPart.start - 1;
-											currentPart = null;
+											p = parts.start[currentPart] - 1;
+											currentPart = -1;
 											newLine = true;
 										} else {
 											split = p;
-											currentPart.width = x - currentPart.x;									
+											parts.width[currentPart] = x - parts.x[currentPart];									
 										}
 									}
 								}
@@ -491,25 +562,31 @@ public class MultiText {
 							case WRAPPING_SYLLABLES: {
 								// trying to split by syllables
 								if (wordStart != -1)
-									if (isSpace) {
+									if (isSpace && spaceStart != parts.start[currentPart]) {
 										split = spaceStart;
-										currentPart.width = spaceX - currentPart.x;
-									} else {
-										split = splitBySyllables(currentPart, wordStart, wordX, maxX);
+										parts.width[currentPart] = spaceX - parts.x[currentPart];
+									} else if (breakPoint != -1 && breakPoint != wordStart + 1) {
+										split = breakPoint;
+										parts.width[currentPart] = breakX - parts.x[currentPart];
+										if (hyphenation.needsHyphen(breakPoint)) {
+											parts.flags[currentPart] |= LayoutStore.HYPHEN;
+											parts.width[currentPart] += hyphenWidth;
+										}
 									}
 
 								if (split == -1) { // can't split
-									if (spaceStart != -1) { // split by spaces
+									// the part may start at the space in the edit mode
+									if (spaceStart != -1 && spaceStart != parts.start[currentPart]) { // split by spaces
 										split = spaceStart;
-										currentPart.width = spaceX - currentPart.x;
+										parts.width[currentPart] = spaceX - parts.x[currentPart];
 									} else { // can't fit, split by words
 										if (firstPartAtLine != -1) {
-											p = currentPart.start - 1;
-											currentPart = null;
+											p = parts.start[currentPart] - 1;
+											currentPart = -1;
 											newLine = true;
 										} else {
 											split = p;
-											currentPart.width = x - currentPart.x;									
+											parts.width[currentPart] = x - parts.x[currentPart];									
 										}
 									}
 								}							
@@ -517,48 +594,48 @@ public class MultiText {
 							}
 
 							if (split != -1) {
-								currentPart.end = split;
+								parts.end[currentPart] = split;
 								partEnds = true;
 								p = split - 1;
 							}
 						} else {
 							if (p == textLength-1) {
 								newLine = true;
-								currentPart.end = textLength;
-								currentPart.width = x - currentPart.x + charWidth;
+								parts.end[currentPart] = textLength;
+								parts.width[currentPart] = x - parts.x[currentPart] + charWidth;
 								partEnds = true;
 							}
 						}
 
-						if (currentPart != null) {
+						if (currentPart != -1) {
 							x += charWidth;
 						}
 					}
 				}
 			}
 			if (partEnds) {
-				if (currentPart != null) {
+				if (currentPart != -1) {
 					if (!cursorFound
-							&& cursorPosition >= currentPart.start 
-							&& cursorPosition <= currentPart.end)
+							&& cursorPosition >= parts.start[currentPart] 
+							&& cursorPosition <= parts.end[currentPart])
 					{
-						cursorX = currentPart.x;
+						cursorX = parts.x[currentPart];
 						if (localCursorX < 0) {
-							cursorX += currentPart.width;
+							cursorX += parts.width[currentPart];
 						} else {
 							cursorX += localCursorX;
 						}
-						cursorY = currentPart.y;
-						cursorPartIndex = textParts.size();
+						cursorY = parts.y[currentPart];
+						cursorPartIndex = parts.size;
 
 						cursorFound = true;
 					}
-					textParts.addElement(currentPart);
+					parts.add();
 					if (firstPartAtLine == -1)
-						firstPartAtLine = textParts.size()-1;
+						firstPartAtLine = parts.size-1;
 					if (lastPartAtLine == -1)
-						lastPartAtLine = textParts.size()-1;
-					currentPart = null;
+						lastPartAtLine = parts.size-1;
+					currentPart = -1;
 				}
 				partEnds = false;
 			}
@@ -568,10 +645,9 @@ public class MultiText {
 				int widthShortage = 0;
 
 				if (firstPartAtLine >= 0 && lastPartAtLine >=0) {
-					TextPart firstPart = getTextPart(firstPartAtLine);
-					TextPart lastPart = getTextPart(lastPartAtLine);
-					lineWidth = lastPart.x + lastPart.width - firstPart.x;
+					lineWidth = parts.x[lastPartAtLine] + parts.width[lastPartAtLine] - parts.x[firstPartAtLine];
 					actualWidth = Math.max(actualWidth, lineWidth);
+					formattedWidth = Math.max(formattedWidth, lineWidth);
 					widthShortage = (maxX - minX) - lineWidth;
 				}
 
@@ -581,7 +657,7 @@ public class MultiText {
 						if (currentTextAlignment == Graphics.RIGHT || currentTextAlignment == Graphics.HCENTER) {
 							int dx = currentTextAlignment == Graphics.RIGHT ? widthShortage : (widthShortage) / 2;
 							for (int i = firstPartAtLine; i <= lastPartAtLine; i++) {
-								getTextPart(i).x += dx;
+								parts.x[i] += dx;
 							}
 						}
 					}
@@ -592,7 +668,7 @@ public class MultiText {
 				// go to new line
 				y += lineHeight;
 				linesCount++;
-				if (y >= this.imageY + imageHeight + this.imageVerticalMargin) {
+				if (y >= layoutImageBottom) {
 					minX = this.leftMargin;
 					maxX = this.width - this.rightMargin;
 				}
@@ -601,6 +677,20 @@ public class MultiText {
 				newLine = false;
 				lineHeight = 0;
 				this.currentTextAlignment = this.nextTextAlignment;
+
+				addLine(p + 1, y, parts.size);
+				if (reflowing && cursorFound && joinOldLayout(p + 1, y)) {
+					reflowing = false;
+					return;
+				}
+				if (y > layoutLimit && p + 1 < textLength) {
+					suspendLayout(p + 1, y);
+					return;
+				}
+				if (task != null && task.update(p + 1, textLength)) {
+					layoutEnd = p + 1;
+					return;
+				}
 			} // newLine
 
 			p++;
@@ -609,10 +699,861 @@ public class MultiText {
 		if (!cursorFound) {
 			cursorX = x;
 			cursorY = y;
-			cursorPartIndex = textParts.size();
+			cursorPartIndex = parts.size;
 		}
 
 		this.textHeight = y + bottomMargin;
+		reflowing = false;
+		layoutPending = false;
+		layoutEnd = textLength;
+	}
+
+	/**
+	 * Lays out the text measuring every character once. The end of a line is found
+	 * by the binary search in accumulated widths of the paragraph, then the line is broken
+	 * at the hyphenation point, the space or the character as layout() does it.
+	 * @param p the index of the first character of the line
+	 * @param y the y position of the line
+	 * @param minX the left edge of the line
+	 * @param maxX the right edge of the line
+	 */
+	private void layoutByWidths(int p, int y, int minX, int maxX) {
+		boolean cursorFound = cursorPartIndex != -1;
+		int textLength = text.length();
+		int localCursorX = -1;
+
+		HyphenationIndex hyphenation = currentWrappingMode == WRAPPING_SYLLABLES ? this.hyphenation : null;
+		int hyphenWidth = hyphenation != null ? renderer.charWidth('-') : 0;
+
+		while (p < textLength) {
+			// spaces at the start of a line are skipped
+			int start = p;
+			while (start < textLength && text.charAt(start) == ' ') {
+				start++;
+			}
+			if (start == textLength) {
+				break;
+			}
+
+			int part = -1;
+			int next;
+			char c = text.charAt(start);
+			if (c == '\n' || c == '\r') { // empty line
+				y += paragraphIndent;
+				next = start + 1;
+			} else {
+				if (paragraphStart < 0 || start > paragraphEnd) {
+					measureParagraph(start);
+				}
+				int base = advances[start - paragraphStart];
+				int end = paragraphEnd;
+				int width;
+				int flags = 0;
+
+				// the first character which doesn't fit the line
+				int overflow = -1;
+				if (advances[end - paragraphStart] - base > maxX - minX) {
+					int low = start + 1;
+					int high = end;
+					while (low < high) {
+						int middle = (low + high) >>> 1;
+						if (advances[middle - paragraphStart] - base > maxX - minX) {
+							high = middle;
+						} else {
+							low = middle + 1;
+						}
+					}
+					overflow = low - 1;
+				}
+
+				int last = overflow != -1 ? overflow : end - 1;
+				if (!cursorFound && cursorPosition >= start && cursorPosition <= last) {
+					localCursorX = minX + advances[cursorPosition - paragraphStart] - base;
+				}
+
+				if (overflow == -1) {
+					width = advances[end - paragraphStart] - base;
+					next = end < textLength ? end + 1 : end;
+				} else {
+					int split = -1;
+					if (currentWrappingMode != WRAPPING_NONE) {
+						int spaceStart = -1;
+						int wordStart = overflow;
+						boolean isSpace = text.charAt(overflow) == ' ';
+						if (isSpace) {
+							spaceStart = overflow;
+						} else {
+							while (wordStart > start && text.charAt(wordStart - 1) != ' ') {
+								wordStart--;
+							}
+							if (wordStart > start) {
+								spaceStart = wordStart - 1;
+							}
+						}
+						if (spaceStart != -1) {
+							while (text.charAt(spaceStart - 1) == ' ') {
+								spaceStart--;
+							}
+						}
+
+						if (hyphenation != null && !isSpace) {
+							for (int i = overflow; i > wordStart; i--) {
+								if (hyphenation.isBreak(i)) {
+									boolean hyphen = hyphenation.needsHyphen(i);
+									if (minX + advances[i - paragraphStart] - base <= (hyphen ? maxX - hyphenWidth : maxX)) {
+										if (i != wordStart + 1) {
+											split = i;
+											flags = hyphen ? LayoutStore.HYPHEN : 0;
+										}
+										break;
+									}
+								}
+							}
+						}
+						if (split == -1) {
+							split = spaceStart;
+						}
+					}
+					if (split == -1) {
+						split = overflow;
+					}
+					if (split == start) {
+						// the character is wider than the line
+						split = start + 1;
+					}
+					end = split;
+					width = advances[split - paragraphStart] - base;
+					if (flags != 0) {
+						width += hyphenWidth;
+					}
+					next = split;
+				}
+
+				part = parts.open();
+				parts.start[part] = start;
+				parts.end[part] = end;
+				parts.x[part] = minX;
+				parts.y[part] = y;
+				parts.width[part] = width;
+				parts.height[part] = currentFontHeight;
+				parts.color[part] = currentTextColor;
+				parts.flags[part] = flags;
+				parts.fonts[part] = currentFont;
+				if (!cursorFound && cursorPosition >= start && cursorPosition <= end) {
+					cursorX = minX + (localCursorX < 0 ? width : localCursorX);
+					cursorY = y;
+					cursorPartIndex = part;
+					cursorFound = true;
+				}
+				parts.add();
+
+				if (overflow == -1 && end < textLength) {
+					y += paragraphIndent;
+				}
+			}
+
+			// go to new line
+			int lineHeight = 0;
+			if (part != -1) {
+				int lineWidth = parts.width[part];
+				actualWidth = Math.max(actualWidth, lineWidth);
+				formattedWidth = Math.max(formattedWidth, lineWidth);
+				int widthShortage = (maxX - minX) - lineWidth;
+				if (widthShortage > 0) {
+					if (currentTextAlignment == Graphics.RIGHT) {
+						parts.x[part] += widthShortage;
+					} else if (currentTextAlignment == Graphics.HCENTER) {
+						parts.x[part] += widthShortage / 2;
+					}
+				}
+				lineHeight = currentFontHeight;
+			}
+			y += lineHeight;
+			linesCount++;
+			if (y >= layoutImageBottom) {
+				minX = this.leftMargin;
+				maxX = this.width - this.rightMargin;
+			}
+			this.currentTextAlignment = this.nextTextAlignment;
+
+			addLine(next, y, parts.size);
+			if (y > layoutLimit && next < textLength) {
+				suspendLayout(next, y);
+				return;
+			}
+			if (task != null && task.update(next, textLength)) {
+				layoutEnd = next;
+				return;
+			}
+			p = next;
+		}
+
+		if (!cursorFound) {
+			cursorX = minX;
+			cursorY = y;
+			cursorPartIndex = parts.size;
+		}
+
+		this.textHeight = y + bottomMargin;
+		layoutPending = false;
+		layoutEnd = textLength;
+	}
+
+	/**
+	 * Stops the lazy layout and estimates the height of the text by the laid out lines.
+	 * @param p the index of the first character of the next line
+	 * @param y the y position of the next line
+	 */
+	private void suspendLayout(int p, int y) {
+		// no characters are laid out yet if lines are skipped beside the image
+		long rest = p > 0 ? (long)(y - lineYs[0]) * (text.length() - p) / p : 0;
+		this.textHeight = y + (int)rest + bottomMargin;
+		reflowing = false;
+		layoutPending = true;
+		layoutEnd = p;
+	}
+
+	/**
+	 * Continues the lazy layout until lines reach the y position. Nothing is done
+	 * if the layout is complete.
+	 * @param bottom the y position relative to the text
+	 */
+	public synchronized void layoutTo(int bottom) {
+		if (!layoutPending || text == null || text != formattedText || pendingTask != null) {
+			return;
+		}
+		int line = lineRecords - 1;
+		int y = lineYs[line];
+		if (bottom < y) {
+			return;
+		}
+		layoutLimit = bottom < Integer.MAX_VALUE - lazyMargin ? bottom + lazyMargin : Integer.MAX_VALUE;
+		selectRun(lineStarts[line]);
+		currentTextAlignment = nextTextAlignment;
+
+		int minX = y >= layoutImageBottom ? this.leftMargin : layoutMinX;
+		int maxX = y >= layoutImageBottom ? this.width - this.rightMargin : layoutMaxX;
+		if (measureOnce && !editMode && cursorWidth == 0 && styles == null) {
+			layoutByWidths(lineStarts[line], y, minX, maxX);
+		} else {
+			layout(lineStarts[line], y, minX, maxX);
+		}
+	}
+
+	/**
+	 * Formats the text in the background thread. The current layout is drawn until
+	 * the new one is ready, then it is replaced at once. A newer formatting cancels
+	 * this one, including format() and textChanged(). The lazy mode isn't used.
+	 * @param listener the listener of the progress, it is called from the background
+	 * thread, can be null
+	 */
+	public synchronized void formatAsync(LayoutListener listener) {
+		MultiText copy = new MultiText(font, text, image);
+		copy.leftMargin = leftMargin;
+		copy.rightMargin = rightMargin;
+		copy.topMargin = topMargin;
+		copy.bottomMargin = bottomMargin;
+		copy.imageAlignment = imageAlignment;
+		copy.imageHorizontalMargin = imageHorizontalMargin;
+		copy.imageVerticalMargin = imageVerticalMargin;
+		copy.paragraphIndent = paragraphIndent;
+		copy.width = width;
+		copy.cursorPosition = cursorPosition;
+		copy.cursorWidth = cursorWidth;
+		copy.textColor = textColor;
+		copy.textAlignment = textAlignment;
+		copy.wrappingMode = wrappingMode;
+		copy.hyphenationRules = hyphenationRules;
+		copy.measureOnce = measureOnce;
+		copy.styledText = styledText;
+		copy.editMode = editMode;
+		copy.underlined = underlined;
+		copy.renderer = renderer;
+		copy.rendererFont = rendererFont;
+
+		LayoutWorker.Task task = new LayoutWorker.Task(this, copy, listener);
+		copy.task = task;
+		if (pendingTask != null) {
+			pendingTask.cancel();
+		}
+		pendingTask = task;
+		LayoutWorker.post(task);
+	}
+
+	/**
+	 * Replaces the layout by the layout of the formatted copy.
+	 * @param task the formatting task
+	 * @return false if the task is cancelled
+	 */
+	synchronized boolean applyLayout(LayoutWorker.Task task) {
+		if (task != pendingTask || task.isCancelled()) {
+			return false;
+		}
+		pendingTask = null;
+		layoutVersion++;
+		MultiText copy = task.copy;
+		addDamage(0, 0, Math.max(width, layoutWidth), getHeight());
+		damagedAll = true;
+		layoutWidth = copy.width;
+		formattedText = copy.formattedText;
+		textHeight = copy.textHeight;
+		linesCount = copy.linesCount;
+		actualWidth = Math.max(actualWidth, copy.actualWidth);
+		formattedWidth = copy.formattedWidth;
+		cursorX = copy.cursorX;
+		cursorY = copy.cursorY;
+		cursorPartIndex = copy.cursorPartIndex;
+		currentTextColor = copy.currentTextColor;
+		currentTextAlignment = copy.currentTextAlignment;
+		nextTextAlignment = copy.nextTextAlignment;
+		currentFont = copy.currentFont;
+		currentFontHeight = copy.currentFontHeight;
+		currentWrappingMode = copy.currentWrappingMode;
+		styles = copy.styles;
+		runEnd = copy.runEnd;
+		renderer = copy.renderer;
+		rendererFont = copy.rendererFont;
+		parts = copy.parts;
+		imageX = copy.imageX;
+		imageY = copy.imageY;
+		lineStarts = copy.lineStarts;
+		lineYs = copy.lineYs;
+		lineParts = copy.lineParts;
+		lineRecords = copy.lineRecords;
+		layoutMinX = copy.layoutMinX;
+		layoutMaxX = copy.layoutMaxX;
+		layoutImageBottom = copy.layoutImageBottom;
+		layoutCursorPosition = copy.layoutCursorPosition;
+		layoutPending = false;
+		layoutEnd = copy.layoutEnd;
+		reflowing = false;
+		hyphenation = copy.hyphenation;
+		hyphenatedText = copy.hyphenatedText;
+		hyphenatedRules = copy.hyphenatedRules;
+		hasInvisibleChars = copy.hasInvisibleChars;
+		paragraphStart = -1;
+		return true;
+	}
+
+	/**
+	 * Forgets the failed formatting, so the text is formatted again by the next change.
+	 * @param task the formatting task
+	 * @return false if the task is cancelled
+	 */
+	synchronized boolean layoutFailed(LayoutWorker.Task task) {
+		if (task != pendingTask || task.isCancelled()) {
+			return false;
+		}
+		pendingTask = null;
+		return true;
+	}
+
+	/**
+	 * Checks if all lines of the text are laid out.
+	 * @return false if the lazy layout isn't complete
+	 */
+	public boolean isLayoutComplete() {
+		return !layoutPending;
+	}
+
+	/**
+	 * Accumulates widths of characters from the start position to the end of the paragraph.
+	 * @param start the index of the first character
+	 */
+	private void measureParagraph(int start) {
+		int textLength = text.length();
+		int end = start;
+		while (end < textLength) {
+			char c = text.charAt(end);
+			if (c == '\n' || c == '\r') {
+				break;
+			}
+			end++;
+		}
+		if (advances.length < end - start + 1) {
+			advances = new int[Math.max(end - start + 1, advances.length * 2)];
+		}
+		int advance = 0;
+		advances[0] = 0;
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (!HyphenationIndex.isInvisible(c)) {
+				advance += renderer.charWidth(c);
+			}
+			advances[i - start + 1] = advance;
+		}
+		paragraphStart = start;
+		paragraphEnd = end;
+	}
+
+	/**
+	 * Updates the layout after the text is changed. Only lines from the line
+	 * before the change are formatted again, from the line before the changed word
+	 * if syllables are wrapped. The formatting stops when a line starts
+	 * at the same character as in the previous layout, the following lines are taken
+	 * from the previous layout and moved if it is needed. Set the new text and the cursor
+	 * position before calling this method. If other parameters of the text are changed,
+	 * call format().
+	 * @param start the index of the first changed character
+	 * @param oldLength the number of the replaced characters
+	 * @param newLength the number of the new characters
+	 */
+	public synchronized void textChanged(int start, int oldLength, int newLength) {
+		update(start, oldLength, newLength, true);
+	}
+
+	/**
+	 * Moves the cursor and formats its lines again as textChanged() does it.
+	 * If the cursor has no width, the lines look the same, so only the old
+	 * and the new areas of the cursor are damaged.
+	 * @param position the new position of the cursor
+	 */
+	public synchronized void moveCursor(int position) {
+		cursorPosition = position;
+		update(position, 0, 0, cursorWidth > 0);
+	}
+
+	/**
+	 * Formats the lines from the line before the change again.
+	 * @param start the index of the first changed character
+	 * @param oldLength the number of the replaced characters
+	 * @param newLength the number of the new characters
+	 * @param damage false if the lines look the same, their area isn't damaged then
+	 */
+	private void update(int start, int oldLength, int newLength, boolean damage) {
+		addCursorDamage();
+		if (pendingTask != null) {
+			// the current layout is replaced by the new one anyway
+			formatAsync(pendingTask.listener);
+			return;
+		}
+		if (styledText != null || styles != null) {
+			format();
+			return;
+		}
+		layoutVersion++;
+		// the index isn't built if the layout is taken from the cache
+		if (hyphenatedText != null && hyphenatedText == formattedText && hyphenatedRules == hyphenationRules) {
+			hyphenation.update(text, hyphenationRules, start, oldLength, newLength);
+			hyphenatedText = text;
+		}
+		formattedText = text;
+		if (currentWrappingMode == WRAPPING_SYLLABLES) {
+			prepareHyphenation();
+		}
+		if (text != null) {
+			for (int i = start; i < start + newLength && i < text.length(); i++) {
+				if (HyphenationIndex.isInvisible(text.charAt(i))) {
+					hasInvisibleChars = true;
+				}
+			}
+		}
+		if (lineRecords == 0 || text == null || text.length() == 0) {
+			format();
+			return;
+		}
+		int delta = newLength - oldLength;
+
+		// the breaks of the syllables depend on the whole word, so it's formatted again
+		int wordStart = start;
+		int wordEnd = start + newLength;
+		if (currentWrappingMode == WRAPPING_SYLLABLES) {
+			while (wordStart > 0 && !isWordSeparator(text.charAt(wordStart - 1))) {
+				wordStart--;
+			}
+			while (wordEnd < text.length() && !isWordSeparator(text.charAt(wordEnd))) {
+				wordEnd++;
+			}
+		}
+
+		// the lines of the change and of the cursor before and after the change
+		int line = findLine(wordStart);
+		line = Math.min(line, findLine(layoutCursorPosition));
+		int cursor = cursorPosition;
+		if (cursor >= start + newLength) {
+			cursor -= delta;
+		} else if (cursor > start) {
+			cursor = start;
+		}
+		line = Math.min(line, findLine(cursor));
+		// the end of the previous line depends on the first word of the changed line
+		line--;
+		if (line <= 0) {
+			format();
+			return;
+		}
+
+		// the lazy layout stops at the end of the old lines
+		layoutLimit = layoutPending ? lineYs[lineRecords - 1] : Integer.MAX_VALUE;
+		paragraphStart = -1;
+
+		// keep the old layout after the start of the line
+		int firstPart = lineParts[line];
+		if (oldParts == null) {
+			oldParts = new LayoutStore(parts.size - firstPart);
+		}
+		oldParts.clear();
+		oldParts.append(parts, firstPart, parts.size, 0, 0);
+		parts.size = firstPart;
+		reflowing = true;
+
+		oldLinesCount = lineRecords - line;
+		oldLineStarts = new int[oldLinesCount];
+		oldLineYs = new int[oldLinesCount];
+		oldLineParts = new int[oldLinesCount];
+		for (int i = 0; i < oldLinesCount; i++) {
+			oldLineStarts[i] = lineStarts[line + i];
+			oldLineYs[i] = lineYs[line + i];
+			oldLineParts[i] = lineParts[line + i] - firstPart;
+		}
+		oldCursorPartIndex = cursorPartIndex - firstPart;
+		oldTextHeight = textHeight;
+		syncLine = 0;
+		changeEnd = wordEnd - delta;
+		changeDelta = delta;
+
+		int y = lineYs[line];
+		joinY = -1;
+		lineRecords = line + 1;
+		linesCount = line;
+		cursorPartIndex = -1;
+		layoutCursorPosition = cursorPosition;
+		selectRun(lineStarts[line]);
+		currentTextAlignment = nextTextAlignment;
+
+		if (y >= layoutImageBottom) {
+			layout(lineStarts[line], y, this.leftMargin, this.width - this.rightMargin);
+		} else {
+			layout(lineStarts[line], y, layoutMinX, layoutMaxX);
+		}
+
+		if (damage) {
+			// the lines up to the old line joined at the same place, else all lines below
+			int bottom = joinY != -1 ? joinY : Math.max(oldTextHeight, textHeight);
+			addDamage(0, y, width, bottom - y);
+		}
+		addCursorDamage();
+	}
+
+	/**
+	 * Checks if the character separates words for the hyphenation.
+	 * @param c the character
+	 * @return true for spaces and line breaks
+	 */
+	private static boolean isWordSeparator(char c) {
+		return c == ' ' || c == '\n' || c == '\r';
+	}
+
+	/**
+	 * Continues the layout by the old lines if the new line starts as one of them.
+	 * @param p the index of the first character of the new line
+	 * @param y the y position of the new line
+	 * @return true if the old lines are added
+	 */
+	private boolean joinOldLayout(int p, int y) {
+		if (p < changeEnd + changeDelta) {
+			return false;
+		}
+		while (syncLine < oldLinesCount && oldLineStarts[syncLine] + changeDelta < p) {
+			syncLine++;
+		}
+		if (syncLine >= oldLinesCount) {
+			return false;
+		}
+		int line = syncLine;
+		int oldY = oldLineYs[line];
+		if (oldLineStarts[line] < changeEnd
+				|| oldLineStarts[line] + changeDelta != p
+				|| oldCursorPartIndex >= oldLineParts[line]
+				|| (oldY != y && (oldY < layoutImageBottom || y < layoutImageBottom))) {
+			return false;
+		}
+
+		// the line is the same, take the rest of the old layout
+		int dy = y - oldY;
+		joinY = dy == 0 ? y : -1;
+		int partsShift = parts.size - oldLineParts[line];
+		parts.append(oldParts, oldLineParts[line], oldParts.size, changeDelta, dy);
+		for (int i = line + 1; i < oldLinesCount; i++) {
+			addLine(oldLineStarts[i] + changeDelta, oldLineYs[i] + dy, oldLineParts[i] + partsShift);
+		}
+		linesCount = lineRecords - 1;
+		textHeight = oldTextHeight + dy;
+		layoutEnd += changeDelta;
+		return true;
+	}
+
+	/**
+	 * Builds the index of hyphenation points if the text or the rules are changed.
+	 */
+	private void prepareHyphenation() {
+		if (text != hyphenatedText || hyphenationRules != hyphenatedRules) {
+			if (hyphenation == null) {
+				hyphenation = new HyphenationIndex();
+			}
+			hyphenation.build(text, hyphenationRules);
+			hyphenatedText = text;
+			hyphenatedRules = hyphenationRules;
+		}
+	}
+
+	/**
+	 * Adds the line to the table of lines.
+	 * @param start the index of the first character of the line
+	 * @param y the y position of the line
+	 * @param part the index of the first part of the line
+	 */
+	private void addLine(int start, int y, int part) {
+		if (lineRecords == lineStarts.length) {
+			int[] starts = new int[lineRecords * 2];
+			int[] ys = new int[lineRecords * 2];
+			int[] firstParts = new int[lineRecords * 2];
+			System.arraycopy(lineStarts, 0, starts, 0, lineRecords);
+			System.arraycopy(lineYs, 0, ys, 0, lineRecords);
+			System.arraycopy(lineParts, 0, firstParts, 0, lineRecords);
+			lineStarts = starts;
+			lineYs = ys;
+			lineParts = firstParts;
+		}
+		lineStarts[lineRecords] = start;
+		lineYs[lineRecords] = y;
+		lineParts[lineRecords] = part;
+		lineRecords++;
+	}
+
+	/**
+	 * Draws the characters of the text skipping soft hyphens and zero width spaces.
+	 * @param g the graphics context
+	 * @param renderer the renderer
+	 * @param start the index of the first character
+	 * @param end the index after the last character
+	 * @param x the x position
+	 * @param y the y position
+	 * @return the x position after the last character
+	 */
+	private int drawText(Graphics g, TextRenderer renderer, int start, int end, int x, int y) {
+		if (hasInvisibleChars) {
+			for (int i = start; i < end; i++) {
+				if (HyphenationIndex.isInvisible(formattedText.charAt(i))) {
+					x = renderer.drawSubstring(g, formattedText, start, i - start, x, y, Graphics.TOP|Graphics.LEFT);
+					start = i + 1;
+				}
+			}
+		}
+		return renderer.drawSubstring(g, formattedText, start, end - start, x, y, Graphics.TOP|Graphics.LEFT);
+	}
+
+	/**
+	 * Finds the first line which may be visible below the given y position.
+	 * A line ends at the start of the next one, the last line is unbounded.
+	 * @param top the y position relative to the text
+	 * @return the index of the line
+	 */
+	private int findVisibleLine(int top) {
+		int low = 0;
+		int high = lineRecords - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (lineYs[middle + 1] >= top) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Finds the line containing the character.
+	 * @param index the index of the character
+	 * @return the index of the line
+	 */
+	private int findLine(int index) {
+		int low = 0;
+		int high = lineRecords - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (lineStarts[middle] <= index) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Takes the font, the color and the alignment of the run of the styled text
+	 * containing the character. The alignment is taken for the next line.
+	 * @param p the index of the character
+	 */
+	private void selectRun(int p) {
+		StyledText styles = this.styles;
+		if (styles == null) {
+			nextTextAlignment = textAlignment;
+			runEnd = Integer.MAX_VALUE;
+			return;
+		}
+		int run = styles.findRun(p);
+		TextRenderer font = styles.getFont(run);
+		currentFont = font != null ? font : getRenderer();
+		currentFontHeight = currentFont.getHeight();
+		int color = styles.getColor(run);
+		currentTextColor = color != StyledText.DEFAULT_COLOR ? color : textColor;
+		int alignment = styles.getAlignment(run);
+		nextTextAlignment = alignment != StyledText.DEFAULT_ALIGNMENT ? alignment : textAlignment;
+		runEnd = styles.getEnd(run);
+	}
+
+	/**
+	 * Changes the color of the run of the styled text. The parts of the run
+	 * are recolored without formatting, their lines are damaged.
+	 * @param run the index of the run
+	 * @param color the color or StyledText.DEFAULT_COLOR
+	 */
+	public synchronized void setRunColor(int run, int color) {
+		styledText.setColor(run, color);
+		if (pendingTask != null) {
+			formatAsync(pendingTask.listener);
+			return;
+		}
+		if (styles != styledText || formattedText != styledText.getText() || lineRecords == 0) {
+			return;
+		}
+		int start = styles.getStart(run);
+		int end = styles.getEnd(run);
+		if (color == StyledText.DEFAULT_COLOR) {
+			color = textColor;
+		}
+		layoutVersion++;
+		LayoutStore parts = this.parts;
+		// the empty part ending the previous line can start at the start of the line
+		int i = lineParts[findLine(start)];
+		while (i > 0 && parts.start[i - 1] >= start) {
+			i--;
+		}
+		// the parts of a run never cross its bounds
+		for (; i < parts.size && parts.start[i] < end; i++) {
+			if (parts.start[i] >= start) {
+				parts.color[i] = color;
+				addDamage(0, parts.y[i], width, parts.height[i]);
+			}
+		}
+	}
+
+	/**
+	 * Changes globalColor, the lines of the parts drawn by it are damaged.
+	 * @param color the color
+	 */
+	public synchronized void setGlobalColor(int color) {
+		if (color == globalColor) {
+			return;
+		}
+		globalColor = color;
+		LayoutStore parts = this.parts;
+		for (int i = 0; i < parts.size; i++) {
+			if (parts.color[i] == textColor) {
+				addDamage(0, parts.y[i], width, parts.height[i]);
+			}
+		}
+	}
+
+	/**
+	 * Checks if any area of the text is changed since the last clearDamage().
+	 * Formatting, edits, moves of the cursor and changes of colors damage the text.
+	 * @return true if the text is damaged
+	 */
+	public synchronized boolean isDamaged() {
+		return damageLeft < damageRight && damageTop < damageBottom;
+	}
+
+	/**
+	 * Gets the left edge of the damaged area relative to the text.
+	 * @return the x position
+	 */
+	public synchronized int getDamageX() {
+		return damageLeft;
+	}
+
+	/**
+	 * Gets the top edge of the damaged area relative to the text.
+	 * @return the y position
+	 */
+	public synchronized int getDamageY() {
+		return damageTop;
+	}
+
+	/**
+	 * Gets the width of the damaged area.
+	 * @return the width in pixels
+	 */
+	public synchronized int getDamageWidth() {
+		return damageRight - damageLeft;
+	}
+
+	/**
+	 * Gets the height of the damaged area. If the text is formatted again,
+	 * it includes the old and the new lines.
+	 * @return the height in pixels
+	 */
+	public synchronized int getDamageHeight() {
+		int bottom = damagedAll ? Math.max(damageBottom, getHeight()) : damageBottom;
+		return bottom - damageTop;
+	}
+
+	/**
+	 * Forgets the damaged area, call it after the area is repainted.
+	 */
+	public synchronized void clearDamage() {
+		damageLeft = damageTop = damageRight = damageBottom = 0;
+		damagedAll = false;
+	}
+
+	/**
+	 * Adds the rectangle to the damaged area.
+	 * @param x the x position of the rectangle
+	 * @param y the y position of the rectangle
+	 * @param w the width of the rectangle
+	 * @param h the height of the rectangle
+	 */
+	private void addDamage(int x, int y, int w, int h) {
+		if (w <= 0 || h <= 0) {
+			return;
+		}
+		if (damageLeft >= damageRight || damageTop >= damageBottom) {
+			damageLeft = x;
+			damageTop = y;
+			damageRight = x + w;
+			damageBottom = y + h;
+		} else {
+			damageLeft = Math.min(damageLeft, x);
+			damageTop = Math.min(damageTop, y);
+			damageRight = Math.max(damageRight, x + w);
+			damageBottom = Math.max(damageBottom, y + h);
+		}
+	}
+
+	/**
+	 * Adds the area of the cursor to the damaged area. The cursor has the height
+	 * of its part and at least one pixel width.
+	 */
+	private void addCursorDamage() {
+		int height = cursorPartIndex >= 0 && cursorPartIndex < parts.size
+				? parts.height[cursorPartIndex] : currentFontHeight;
+		addDamage(cursorX, cursorY, Math.max(cursorWidth, 1), height);
+	}
+
+	/**
+	 * Gets the renderer of the text font. The renderer is created again only
+	 * if the font is changed.
+	 * @return the renderer
+	 */
+	private TextRenderer getRenderer() {
+		if (renderer == null || rendererFont != font) {
+			renderer = FontFacade.createRenderer(font);
+			rendererFont = font;
+		}
+		return renderer;
 	}
 
 	/**
@@ -622,18 +1563,20 @@ public class MultiText {
 	 * @param y the y position
 	 */
 	public void draw(Graphics g, int x, int y) {
-		draw(g, x, y, 0, textParts.size());
+		draw(g, x, y, 0, Integer.MAX_VALUE);
 	}
 
 	/**
-	 * Draws the text in the specified range of lines.
+	 * Draws the text in the specified range of parts. The first visible line
+	 * is found by the binary search in the table of lines, so only the lines
+	 * crossing the clip are visited.
 	 * @param g the graphics context
 	 * @param x the x position
 	 * @param y the y position
-	 * @param start the start line to be drawn
-	 * @param end the end line to be drawn
+	 * @param start the start part to be drawn
+	 * @param end the end part to be drawn
 	 */
-	public void draw(Graphics g, int x, int y, int start, int end) {
+	public synchronized void draw(Graphics g, int x, int y, int start, int end) {
 		try {
 			int clipLeft = g.getClipX();
 			int clipTop = g.getClipY();
@@ -653,49 +1596,138 @@ public class MultiText {
 				}
 			}
 
-			int partsCount = textParts.size();
+			if (layoutPending) {
+				layoutTo(clipBottom - y);
+			}
+
+			int partsCount = parts.size;
 			if (start < 0 || start >= partsCount || end <= start) {
 				return;
 			}
 			if (end > partsCount) {
 				end = partsCount;
 			}
-			if (fontFacade == null) {
-				fontFacade = new FontFacade(font);
+			// only the lines crossing the clip are visited
+			for (int line = findVisibleLine(clipTop - y); line < lineRecords; line++) {
+				if (y + lineYs[line] >= clipBottom) {
+					break;
+				}
+				int from = lineParts[line];
+				int to = line + 1 < lineRecords ? lineParts[line + 1] : partsCount;
+				if (from < start) {
+					from = start;
+				}
+				if (to > end) {
+					to = end;
+				}
+				for (int i = from; i < to; i++) {
+					drawPart(g, i, x, y, clipLeft, clipTop, clipRight, clipBottom);
+				}
+			}
+		} catch (Exception e) {
+		}
+	}
+
+	/**
+	 * Draws the text part if it is crossing the clip.
+	 * @param g the graphics context
+	 * @param i the index of the part
+	 * @param x the x position of the text
+	 * @param y the y position of the text
+	 * @param clipLeft the left bound of the clip
+	 * @param clipTop the top bound of the clip
+	 * @param clipRight the right bound of the clip
+	 * @param clipBottom the bottom bound of the clip
+	 */
+	private void drawPart(Graphics g, int i, int x, int y,
+			int clipLeft, int clipTop, int clipRight, int clipBottom)
+	{
+		LayoutStore parts = this.parts;
+		TextRenderer renderer = parts.fonts[i];
+		int start = parts.start[i];
+		int end = parts.end[i];
+		int color = parts.color[i];
+
+		int xPos = x + parts.x[i];
+		int yPos = y + parts.y[i];
+
+		if (xPos + parts.width[i] >= clipLeft
+				&& xPos < clipRight
+				&& yPos + parts.height[i] >= clipTop
+				&& yPos < clipBottom)
+		{
+			g.setColor(color == textColor ? globalColor : color);
+			int hyphenX = 0;
+			if (editMode && cursorWidth > 0 && i == cursorPartIndex) {
+				int xx = drawText(g, renderer, start, cursorPosition, xPos, yPos) + cursorWidth;
+				hyphenX = drawText(g, renderer, cursorPosition, end, xx, yPos);
+			} else {
+				hyphenX = drawText(g, renderer, start, end, xPos, yPos);
 			}
-			for (int i = start; i < end; i++) {
-				TextPart part = getTextPart(i);
-				fontFacade.setFont(part.font);
 
-				int xPos = x + part.x;
-				int yPos = y + part.y;
+			if ((parts.flags[i] & LayoutStore.HYPHEN) != 0) {
+				renderer.drawChar(g, '-', hyphenX, yPos, Graphics.TOP|Graphics.LEFT);
+			}
 
-				if (xPos + part.width >= clipLeft
-						&& xPos < clipRight
-						&& yPos + part.height >= clipTop
-						&& yPos < clipBottom)
-				{
-					g.setColor(part.color == textColor ? globalColor : part.color);
-					int hyphenX = 0;
-					if (editMode && cursorWidth > 0 && i == cursorPartIndex) {
-						int xx = fontFacade.drawSubstring(g, text, part.start, cursorPosition - part.start, xPos, yPos, Graphics.TOP|Graphics.LEFT) + cursorWidth;
-						hyphenX = fontFacade.drawSubstring(g, text, cursorPosition, part.end - cursorPosition, xx, yPos, Graphics.TOP|Graphics.LEFT);
-					} else {
-						hyphenX = fontFacade.drawSubstring(g, text, part.start, part.end - part.start, xPos, yPos, Graphics.TOP|Graphics.LEFT);
-					}
+//			g.setColor(0xFF0000);
+//			g.drawRect(xPos, yPos, parts.width[i] - 1, parts.height[i] - 1);
+		}
+	}
 
-					if (part.hasHyphen) {
-						fontFacade.drawChar(g, '-', hyphenX, yPos, Graphics.TOP|Graphics.LEFT);
-					}
+	/**
+	 * Sets the memory budget of the layout cache shared by all MultiText objects.
+	 * When the cache is on, format() looks for the layout of the same text with the same font,
+	 * width, margins, alignment, wrapping mode and image size, and takes the parts of the text
+	 * from it without formatting. Texts in edit mode aren't cached. The cache is off by default.
+	 * @param budget the estimated size of cached layouts in bytes, 0 turns the cache off
+	 */
+	public static synchronized void setLayoutCacheBudget(int budget) {
+		if (budget <= 0) {
+			layoutCache = null;
+		} else if (layoutCache == null) {
+			layoutCache = new LayoutCache(budget);
+		} else {
+			layoutCache.setBudget(budget);
+		}
+	}
 
-//					g.setColor(0xFF0000);
-//					g.drawRect(xPos, yPos, part.width - 1, part.height - 1);
-				}
-			}
-		} catch (Exception e) {
+	/**
+	 * Gets the memory budget of the layout cache.
+	 * @return the budget in bytes, 0 if the cache is off
+	 */
+	public static int getLayoutCacheBudget() {
+		LayoutCache cache = layoutCache;
+		return cache != null ? cache.getBudget() : 0;
+	}
+
+	/**
+	 * Removes all layouts from the layout cache and resets its counters.
+	 */
+	public static void clearLayoutCache() {
+		LayoutCache cache = layoutCache;
+		if (cache != null) {
+			cache.clear();
 		}
 	}
 
+	/**
+	 * Gets the number of layouts taken from the layout cache.
+	 * @return the number of cache hits
+	 */
+	public static int getLayoutCacheHits() {
+		LayoutCache cache = layoutCache;
+		return cache != null ? cache.getHits() : 0;
+	}
+
+	/**
+	 * Gets the number of formattings which didn't find the layout in the layout cache.
+	 * @return the number of cache misses
+	 */
+	public static int getLayoutCacheMisses() {
+		LayoutCache cache = layoutCache;
+		return cache != null ? cache.getMisses() : 0;
+	}
+
 	/**
 	 * Converts a character to lower case. Many mobile devices have no full implementation
 	 * of toLowerCase() method. They aren't support national alphabets. Following method
@@ -732,17 +1764,129 @@ public class MultiText {
 	}
 
 	/**
-	 * Atomic part of the text.
-	 * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+	 * The key of the layout in the layout cache: the text, the font, the rules
+	 * of hyphenation and all parameters which change the layout.
 	 */
-	public class TextPart {
-		Object font;
-		int color;
-		int x;
-		int y;
-		int width;
-		int height;
-		int start, end;
-		boolean hasHyphen = false;
+	private static final class LayoutKey {
+		final String text;
+		final Object font;
+		final Object rules;
+		final Object styles;
+		final int[] parameters;
+		final int hash;
+		final int size;
+
+		LayoutKey(MultiText multiText) {
+			text = multiText.text;
+			font = multiText.font;
+			rules = multiText.hyphenationRules;
+			StyledText styles = multiText.styledText;
+			this.styles = styles;
+			Image image = multiText.image;
+			parameters = new int[] {
+					multiText.width,
+					multiText.leftMargin,
+					multiText.rightMargin,
+					multiText.topMargin,
+					multiText.bottomMargin,
+					multiText.paragraphIndent,
+					multiText.imageAlignment,
+					multiText.imageHorizontalMargin,
+					multiText.imageVerticalMargin,
+					image != null ? image.getWidth() : -1,
+					image != null ? image.getHeight() : -1,
+					multiText.textAlignment,
+					multiText.wrappingMode,
+					multiText.textColor,
+					multiText.cursorPosition,
+					multiText.cursorWidth,
+					multiText.measureOnce ? 1 : 0,
+					styles != null ? styles.getVersion() : 0
+			};
+			int h = text.hashCode() * 31 + font.hashCode();
+			for (int i = 0; i < parameters.length; i++) {
+				h = h * 31 + parameters[i];
+			}
+			hash = h;
+			// the key keeps the text in memory
+			size = 32 + 4 * parameters.length + 2 * text.length();
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof LayoutKey)) {
+				return false;
+			}
+			LayoutKey key = (LayoutKey) o;
+			if (hash != key.hash || font != key.font || rules != key.rules || styles != key.styles || !text.equals(key.text)) {
+				return false;
+			}
+			for (int i = 0; i < parameters.length; i++) {
+				if (parameters[i] != key.parameters[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * The copy of the formatted text in the layout cache.
+	 */
+	private static final class Layout {
+		// every part takes 8 ints and a reference
+		private static final int PART_SIZE = 36;
+		private static final int LINE_SIZE = 12;
+
+		final LayoutStore parts;
+		final int[] lineStarts, lineYs, lineParts;
+		final int linesCount;
+		final int width;
+		final int textHeight;
+		final int cursorX, cursorY, cursorPartIndex;
+		final int size;
+
+		Layout(MultiText multiText) {
+			int count = multiText.parts.size;
+			parts = new LayoutStore(count);
+			parts.append(multiText.parts, 0, count, 0, 0);
+			int lines = multiText.lineRecords;
+			lineStarts = new int[lines];
+			lineYs = new int[lines];
+			lineParts = new int[lines];
+			System.arraycopy(multiText.lineStarts, 0, lineStarts, 0, lines);
+			System.arraycopy(multiText.lineYs, 0, lineYs, 0, lines);
+			System.arraycopy(multiText.lineParts, 0, lineParts, 0, lines);
+			linesCount = multiText.linesCount;
+			width = multiText.formattedWidth;
+			textHeight = multiText.textHeight;
+			cursorX = multiText.cursorX;
+			cursorY = multiText.cursorY;
+			cursorPartIndex = multiText.cursorPartIndex;
+			size = 64 + PART_SIZE * count + LINE_SIZE * lines;
+		}
+
+		/**
+		 * Copies the layout to the text.
+		 * @param multiText the text
+		 */
+		void restore(MultiText multiText) {
+			multiText.parts.append(parts, 0, parts.size, 0, 0);
+			multiText.lineRecords = 0;
+			for (int i = 0; i < lineStarts.length; i++) {
+				multiText.addLine(lineStarts[i], lineYs[i], lineParts[i]);
+			}
+			multiText.linesCount = linesCount;
+			multiText.formattedWidth = width;
+			multiText.actualWidth = Math.max(multiText.actualWidth, width);
+			multiText.textHeight = textHeight;
+			multiText.cursorX = cursorX;
+			multiText.cursorY = cursorY;
+			multiText.cursorPartIndex = cursorPartIndex;
+			multiText.layoutEnd = multiText.text.length();
+		}
 	}
-}
\ No newline at end of file
+}
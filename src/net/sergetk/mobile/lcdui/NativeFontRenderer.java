@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.lcdui;
+
+import javax.microedition.lcdui.Font;
+import javax.microedition.lcdui.Graphics;
+
+/**
+ * <p>The TextRenderer for the native fonts of the device.</p>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+public class NativeFontRenderer implements TextRenderer {
+	private final Font font;
+
+	/**
+	 * Creates the renderer for the font.
+	 * @param font the native font
+	 */
+	public NativeFontRenderer(Font font) {
+		this.font = font;
+	}
+
+	/**
+	 * Gets the font of the renderer.
+	 * @return the font
+	 */
+	public Font getFont() {
+		return font;
+	}
+
+	public int drawChar(Graphics g, char c, int x, int y, int anchors) {
+		g.setFont(font);
+		g.drawChar(c, x, y, anchors);
+		return getNextX(font.charWidth(c), x, anchors);
+	}
+
+	public int drawChars(Graphics g, char[] data, int offset, int length, int x, int y, int anchors) {
+		g.setFont(font);
+		g.drawChars(data, offset, length, x, y, anchors);
+		return getNextX(font.charsWidth(data, offset, length), x, anchors);
+	}
+
+	public int drawString(Graphics g, String text, int x, int y, int anchors) {
+		g.setFont(font);
+		g.drawString(text, x, y, anchors);
+		return getNextX(font.stringWidth(text), x, anchors);
+	}
+
+	public int drawSubstring(Graphics g, String text, int offset, int length, int x, int y, int anchors) {
+		g.setFont(font);
+		g.drawSubstring(text, offset, length, x, y, anchors);
+		return getNextX(font.substringWidth(text, offset, length), x, anchors);
+	}
+
+	/**
+	 * Gets the x coordinate next to the drawn text.
+	 * @param w the width of the text
+	 * @param x the x coordinate of the anchor point
+	 * @param anchors the anchor point of the text
+	 * @return the x coordinate of the right edge of the text
+	 */
+	private static int getNextX(int w, int x, int anchors) {
+		if ((anchors & Graphics.RIGHT) != 0) {
+			return x;
+		} else if ((anchors & Graphics.HCENTER) != 0) {
+			return x - w / 2 + w;
+		}
+		return x + w;
+	}
+
+	public int charWidth(char c) {
+		return font.charWidth(c);
+	}
+
+	public int charsWidth(char[] ch, int offset, int length) {
+		return font.charsWidth(ch, offset, length);
+	}
+
+	public int stringWidth(String str) {
+		return font.stringWidth(str);
+	}
+
+	public int substringWidth(String str, int offset, int length) {
+		return font.substringWidth(str, offset, length);
+	}
+
+	public int getHeight() {
+		return font.getHeight();
+	}
+
+	public int getBaselinePosition() {
+		return font.getBaselinePosition();
+	}
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.lcdui;
+
+import javax.microedition.lcdui.Image;
+
+/**
+ * <p>PaletteColorizer changes the color of an image in the PNG format with a palette.</p>
+ * 
+ * <p>Each color of the palette is replaced with a mix of the new color and white in proportion
+ * to the brightness of the original color, so black becomes the new color and white stays white.
+ * The brightness of the palette entries is calculated once. The image data is kept in the buffer,
+ * and the palette chunk is rewritten in place for every new color, so colorizing doesn't require
+ * reading or copying the data.</p>
+ * 
+ * <p>The CRC32 table is created at the first use and shared by all instances.</p>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+public class PaletteColorizer {
+	private static final String PNG_SIGNATURE = "\u0089PNG\r\n\u001A\n";
+	private static final int CRC32_POLYNOMIAL = 0xEDB88320;
+
+	private static int[] crcTable;
+
+	private byte[] buffer;
+	private int offset;
+	private int length;
+
+	private int paletteOffset;
+	private int paletteLength;
+	private int[] brightness;
+	private byte[] originalPalette;
+
+	/**
+	 * Creates a new colorizer for the image data. The buffer is modified by colorizing,
+	 * so it must not be shared with other code.
+	 * @param buffer the byte array containing the image in the PNG format
+	 * @param offset the offset of the image in the array
+	 * @param length the length of the image data
+	 * @throws IllegalArgumentException if the data isn't in the PNG format
+	 */
+	public PaletteColorizer(byte[] buffer, int offset, int length) {
+		this(buffer, offset, length, -1);
+	}
+
+	/**
+	 * Creates a new colorizer for the image data with the known offset of the palette chunk,
+	 * so the chunks aren't searched. If the palette chunk isn't found at the offset,
+	 * it is searched as usual.
+	 * @param buffer the byte array containing the image in the PNG format
+	 * @param offset the offset of the image in the array
+	 * @param length the length of the image data
+	 * @param paletteOffset the offset of the palette chunk from the start of the image,
+	 * -1 if it isn't known
+	 * @throws IllegalArgumentException if the data isn't in the PNG format or the palette is damaged
+	 */
+	public PaletteColorizer(byte[] buffer, int offset, int length, int paletteOffset) {
+		if (length < 8 || !compareBytes(buffer, offset, PNG_SIGNATURE)) {
+			throw new IllegalArgumentException();
+		}
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+
+		int chunkOffset = offset + paletteOffset;
+		if (paletteOffset < 8 || !isChunk(buffer, chunkOffset, offset + length, "PLTE")) {
+			chunkOffset = getChunk(buffer, offset + 8, offset + length, "PLTE");
+		}
+		this.paletteOffset = chunkOffset;
+		if (chunkOffset >= 0) {
+			paletteLength = getInt(buffer, chunkOffset);
+			// the chunk fits the image, the palette must consist of whole entries
+			if (paletteLength % 3 != 0) {
+				throw new IllegalArgumentException();
+			}
+			int dataOffset = chunkOffset + 8;
+			originalPalette = new byte[paletteLength];
+			System.arraycopy(buffer, dataOffset, originalPalette, 0, paletteLength);
+
+			brightness = new int[paletteLength / 3];
+			for (int i = 0; i < brightness.length; i++) {
+				int pR = buffer[dataOffset++] & 0xFF;
+				int pG = buffer[dataOffset++] & 0xFF;
+				int pB = buffer[dataOffset++] & 0xFF;
+				brightness[i] = (pR + pG + pB) / 3;
+			}
+		}
+	}
+
+	/**
+	 * Checks if the image has a palette.
+	 * @return true if the image can be colorized
+	 */
+	public boolean hasPalette() {
+		return paletteOffset >= 0;
+	}
+
+	/**
+	 * Creates the image with the original palette.
+	 * @return the image
+	 */
+	public synchronized Image createImage() {
+		restore();
+		return Image.createImage(buffer, offset, length);
+	}
+
+	/**
+	 * Creates the image of the specified color.
+	 * @param color the color
+	 * @return the image or null if the image has no palette
+	 */
+	public synchronized Image createImage(int color) {
+		if (paletteOffset < 0) {
+			return null;
+		}
+		colorize(color);
+		return Image.createImage(buffer, offset, length);
+	}
+
+	/**
+	 * Rewrites the palette chunk in the buffer for the specified color.
+	 * @param color the color
+	 */
+	public synchronized void colorize(int color) {
+		if (paletteOffset < 0) {
+			return;
+		}
+		int r = (color & 0x00FF0000) >>> 16;
+		int g = (color & 0x0000FF00) >>> 8;
+		int b = (color & 0x000000FF);
+
+		int dataOffset = paletteOffset + 8;
+		for (int i = 0; i < brightness.length; i++) {
+			int l = brightness[i];
+			buffer[dataOffset++] = (byte) (r + (l * (255 - r)) / 255); // red
+			buffer[dataOffset++] = (byte) (g + (l * (255 - g)) / 255); // green
+			buffer[dataOffset++] = (byte) (b + (l * (255 - b)) / 255); // blue
+		}
+		updatePaletteCrc();
+	}
+
+	/**
+	 * Restores the original palette in the buffer.
+	 */
+	public synchronized void restore() {
+		if (paletteOffset >= 0) {
+			System.arraycopy(originalPalette, 0, buffer, paletteOffset + 8, paletteLength);
+			updatePaletteCrc();
+		}
+	}
+
+	private void updatePaletteCrc() {
+		int crc = crc32(buffer, paletteOffset + 4, paletteLength + 4);
+		setInt(buffer, paletteOffset + 8 + paletteLength, crc);
+	}
+
+	/**
+	 * Gets the buffer containing the image data.
+	 * @return the buffer
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Gets the offset of the image data in the buffer.
+	 * @return the offset
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Gets the length of the image data.
+	 * @return the length in bytes
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/* CRC32 calculations */
+
+	/**
+	 * Gets the CRC32 table. The table is created at the first call.
+	 * @return the table
+	 */
+	private static int[] getCrcTable() {
+		int[] table = crcTable;
+		if (table == null) {
+			table = new int[256];
+			for (int n = 0; n < 256; n++) {
+				int c = n;
+				for (int i = 8; i > 0; i--) {
+					if ((c & 1) == 1) {
+						c = (c >>> 1) ^ CRC32_POLYNOMIAL;
+					} else {
+						c >>>= 1;
+					}
+				}
+				table[n] = c;
+			}
+			crcTable = table;
+		}
+		return table;
+	}
+
+	/**
+	 * Calculates the CRC32 value.
+	 * @param buffer the byte array
+	 * @param offset the offset of the start of the data in the array
+	 * @param count the count of bytes
+	 * @return the CRC32 value
+	 */
+	public static int crc32(byte buffer[], int offset, int count) {
+		int[] table = getCrcTable();
+		int crc = 0xFFFFFFFF;
+		while (count-- != 0) {
+			crc = table[(crc ^ buffer[offset++]) & 0xFF] ^ (crc >>> 8);
+		}
+		return crc ^ 0xFFFFFFFF;
+	}
+
+	/* ================= Working with the PNG =============== */
+
+	/**
+	 * Finds the specified chunk. 
+	 * @param buffer the byte array
+	 * @param offset the offset of the first chunk in the array
+	 * @param end the offset of the end of the data in the array
+	 * @param chunk the name of chunk (i.e. PLTE)
+	 * @return the offset of chunk (-1 if chunk isn't present)
+	 */
+	static int getChunk(byte [] buffer, int offset, int end, String chunk) {
+		while (offset + 8 <= end) {
+			int dataLength = getInt(buffer, offset);
+			// compared without adding, a corrupt length mustn't overflow the offset
+			if (dataLength < 0 || dataLength > end - offset - 12) {
+				break;
+			}
+			if (compareBytes(buffer, offset + 4, chunk)) {
+				return offset;
+			}
+			offset += 4 + 4 + dataLength + 4;
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks if the specified chunk is at the offset and fits the data.
+	 * @param buffer the byte array
+	 * @param offset the offset of the chunk in the array
+	 * @param end the offset of the end of the data in the array
+	 * @param chunk the name of chunk (i.e. PLTE)
+	 * @return true if the chunk is at the offset
+	 */
+	static boolean isChunk(byte [] buffer, int offset, int end, String chunk) {
+		if (offset < 0 || offset > end - 8) {
+			return false;
+		}
+		int dataLength = getInt(buffer, offset);
+		return dataLength >= 0 && dataLength <= end - offset - 12
+				&& compareBytes(buffer, offset + 4, chunk);
+	}
+
+	/**
+	 * Compare byte sequence with string
+	 * @param buffer the byte array
+	 * @param offset the offset of the start of the data in the array
+	 * @param str the string to compare with bytes in the buffer
+	 * @return true if the buffer contains the string
+	 */
+	static boolean compareBytes(byte [] buffer, int offset, String str) {
+		for (int i = 0; i < str.length(); i++) {
+			if ( ((byte) (str.charAt(i))) != buffer[i + offset]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get the integer value from the four bytes. The most signified byte go first.
+	 * @param buffer the byte array
+	 * @param offset the offset of the start of the data in the array
+	 * @return the integer value
+	 */
+	static int getInt(byte [] buffer, int offset) {
+		int result = buffer[offset++] << 24;
+		result |= (buffer[offset++] << 16) & 0x00FF0000;
+		result |= (buffer[offset++] << 8)  & 0x0000FF00;
+		result |= buffer[offset] & 0x000000FF;
+
+		return result;
+	}
+
+	/**
+	 * Set four bytes to the specified value. The most signified byte go first.
+	 * @param buffer the byte array
+	 * @param offset the offset of the start of the data in the array
+	 * @param value the value to set
+	 */
+	static void setInt(byte [] buffer, int offset, int value) {
+		buffer[offset++] = (byte)((value & 0xFF000000) >>> 24);
+		buffer[offset++] = (byte)((value & 0x00FF0000) >>> 16);
+		buffer[offset++] = (byte)((value & 0x0000FF00) >>> 8);
+		buffer[offset]   = (byte)((value & 0x000000FF));
+	}
+}
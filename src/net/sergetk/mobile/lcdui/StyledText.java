@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.lcdui;
+
+import javax.microedition.lcdui.Graphics;
+
+/**
+ * <p>The text with runs of different fonts, colors and alignments. The runs are
+ * appended one by one or compiled from the markup once, MultiText switches the font,
+ * the color and the alignment at the ends of runs without scanning the markup.
+ * The color of a run can be changed later, MultiText.setRunColor() changes it
+ * without formatting.</p>
+ * 
+ * <p>The markup consists of the text and tags: &lt;f1&gt; selects the font 1,
+ * &lt;c2&gt; selects the color 2, &lt;l&gt;, &lt;m&gt; and &lt;r&gt; select
+ * the left, the centered and the right alignment, &lt;/&gt; returns to the default
+ * style and &lt;&lt; is the '&lt;' character.</p>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+public final class StyledText {
+	/**
+	 * The color of the run drawn by the text color of MultiText
+	 */
+	public static final int DEFAULT_COLOR = -1;
+	/**
+	 * The alignment of the run taken from MultiText
+	 */
+	public static final int DEFAULT_ALIGNMENT = 0;
+
+	private final StringBuffer buffer = new StringBuffer();
+	private String text = "";
+
+	private int[] starts = new int[8];
+	private int[] ends = new int[8];
+	private TextRenderer[] fonts = new TextRenderer[8];
+	private int[] colors = new int[8];
+	private int[] alignments = new int[8];
+	private int count;
+
+	// the last font and its renderer
+	private Object lastFont;
+	private TextRenderer lastRenderer;
+
+	// changed by every modification, layouts are cached for the version
+	private int version;
+
+	/**
+	 * Compiles the markup to the runs.
+	 * @param markup the text with tags
+	 * @param fonts fonts selected by &lt;f&gt; tags, must be instances of Font,
+	 * BitmapFont or TextRenderer, can be null
+	 * @param colors colors selected by &lt;c&gt; tags, can be null
+	 * @return the styled text
+	 * @throws IllegalArgumentException if the markup has unknown tags or
+	 * a tag selects a missing font or color
+	 */
+	public static StyledText parse(String markup, Object[] fonts, int[] colors) {
+		StyledText styledText = new StyledText();
+		Object font = null;
+		int color = DEFAULT_COLOR;
+		int alignment = DEFAULT_ALIGNMENT;
+		int length = markup.length();
+		int p = 0;
+		while (p < length) {
+			int tag = markup.indexOf('<', p);
+			if (tag == -1) {
+				tag = length;
+			}
+			styledText.append(markup.substring(p, tag), font, color, alignment);
+			if (tag == length) {
+				break;
+			}
+			int close = markup.indexOf('>', tag);
+			if (tag + 1 < length && markup.charAt(tag + 1) == '<') {
+				styledText.append("<", font, color, alignment);
+				p = tag + 2;
+				continue;
+			}
+			if (close == -1) {
+				throw new IllegalArgumentException("Unclosed tag at " + tag);
+			}
+			String name = markup.substring(tag + 1, close);
+			if (name.equals("/")) {
+				font = null;
+				color = DEFAULT_COLOR;
+				alignment = DEFAULT_ALIGNMENT;
+			} else if (name.equals("l")) {
+				alignment = Graphics.LEFT;
+			} else if (name.equals("m")) {
+				alignment = Graphics.HCENTER;
+			} else if (name.equals("r")) {
+				alignment = Graphics.RIGHT;
+			} else if (name.length() > 1 && (name.charAt(0) == 'f' || name.charAt(0) == 'c')) {
+				int index;
+				try {
+					index = Integer.parseInt(name.substring(1));
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Unknown tag " + name);
+				}
+				if (name.charAt(0) == 'f') {
+					if (fonts == null || index < 0 || index >= fonts.length || fonts[index] == null) {
+						throw new IllegalArgumentException("No font " + index + " for tag " + name);
+					}
+					font = fonts[index];
+				} else {
+					if (colors == null || index < 0 || index >= colors.length) {
+						throw new IllegalArgumentException("No color " + index + " for tag " + name);
+					}
+					color = colors[index];
+				}
+			} else {
+				throw new IllegalArgumentException("Unknown tag " + name);
+			}
+			p = close + 1;
+		}
+		return styledText;
+	}
+
+	/**
+	 * Appends the text in the default style.
+	 * @param s the text
+	 * @return this styled text
+	 */
+	public StyledText append(String s) {
+		return append(s, null, DEFAULT_COLOR, DEFAULT_ALIGNMENT);
+	}
+
+	/**
+	 * Appends the run of the text. It is joined to the previous run
+	 * if the style is the same.
+	 * @param s the text
+	 * @param font the font, must be an instance of Font, BitmapFont or TextRenderer,
+	 * null for the font of MultiText
+	 * @param color the color or DEFAULT_COLOR
+	 * @param alignment LEFT, RIGHT, HCENTER or DEFAULT_ALIGNMENT
+	 * @return this styled text
+	 */
+	public synchronized StyledText append(String s, Object font, int color, int alignment) {
+		if (s.length() == 0) {
+			return this;
+		}
+		if (font != lastFont) {
+			lastRenderer = FontFacade.createRenderer(font);
+			lastFont = font;
+		}
+		int start = buffer.length();
+		buffer.append(s);
+		text = null;
+		version++;
+
+		int last = count - 1;
+		if (last >= 0 && fonts[last] == lastRenderer && colors[last] == color
+				&& alignments[last] == alignment) {
+			ends[last] = buffer.length();
+			return this;
+		}
+		if (count == starts.length) {
+			grow(count * 2);
+		}
+		starts[count] = start;
+		ends[count] = buffer.length();
+		fonts[count] = lastRenderer;
+		colors[count] = color;
+		alignments[count] = alignment;
+		count++;
+		return this;
+	}
+
+	/**
+	 * Gets the text without tags. The same string is returned until the text is changed.
+	 * @return the text
+	 */
+	public synchronized String getText() {
+		if (text == null) {
+			text = buffer.toString();
+		}
+		return text;
+	}
+
+	/**
+	 * Gets the number of runs.
+	 * @return the number of runs
+	 */
+	public int getRunCount() {
+		return count;
+	}
+
+	/**
+	 * Gets the index of the first character of the run.
+	 * @param run the index of the run
+	 * @return the index of the character
+	 */
+	public int getStart(int run) {
+		return starts[run];
+	}
+
+	/**
+	 * Gets the index after the last character of the run.
+	 * @param run the index of the run
+	 * @return the index of the character
+	 */
+	public int getEnd(int run) {
+		return ends[run];
+	}
+
+	/**
+	 * Gets the renderer of the run font.
+	 * @param run the index of the run
+	 * @return the renderer, null for the font of MultiText
+	 */
+	public TextRenderer getFont(int run) {
+		return fonts[run];
+	}
+
+	/**
+	 * Gets the color of the run.
+	 * @param run the index of the run
+	 * @return the color or DEFAULT_COLOR
+	 */
+	public int getColor(int run) {
+		return colors[run];
+	}
+
+	/**
+	 * Gets the alignment of the run.
+	 * @param run the index of the run
+	 * @return the alignment or DEFAULT_ALIGNMENT
+	 */
+	public int getAlignment(int run) {
+		return alignments[run];
+	}
+
+	/**
+	 * Changes the color of the run. Call MultiText.setRunColor() to change the color
+	 * of the formatted text.
+	 * @param run the index of the run
+	 * @param color the color or DEFAULT_COLOR
+	 */
+	public synchronized void setColor(int run, int color) {
+		if (colors[run] != color) {
+			colors[run] = color;
+			version++;
+		}
+	}
+
+	/**
+	 * Finds the run containing the character by the binary search.
+	 * @param index the index of the character
+	 * @return the index of the run, the last run for the end of the text
+	 */
+	public int findRun(int index) {
+		int low = 0;
+		int high = count - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (starts[middle] <= index) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	int getVersion() {
+		return version;
+	}
+
+	private void grow(int capacity) {
+		int[] oldStarts = starts, oldEnds = ends, oldColors = colors, oldAlignments = alignments;
+		TextRenderer[] oldFonts = fonts;
+		starts = new int[capacity];
+		ends = new int[capacity];
+		fonts = new TextRenderer[capacity];
+		colors = new int[capacity];
+		alignments = new int[capacity];
+		System.arraycopy(oldStarts, 0, starts, 0, count);
+		System.arraycopy(oldEnds, 0, ends, 0, count);
+		System.arraycopy(oldFonts, 0, fonts, 0, count);
+		System.arraycopy(oldColors, 0, colors, 0, count);
+		System.arraycopy(oldAlignments, 0, alignments, 0, count);
+	}
+}
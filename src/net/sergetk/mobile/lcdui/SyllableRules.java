@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.lcdui;
+
+/**
+ * <p>Hyphenation by syllables. A word is split before the last consonant between
+ * two vowels or between two adjacent vowels. By default latin and cyrillic vowels
+ * are used.</p>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+public class SyllableRules implements HyphenationRules {
+	/**
+	 * Latin and cyrillic vowels
+	 */
+	public static final String VOWELS = "aeiouy\u0430\u0435\u0451\u0438\u043E\u0443\u044B\u044D\u044E\u044F";
+	/**
+	 * Cyrillic hard and soft signs
+	 */
+	public static final String DONT_TEAR_OFF_AT_END = "\u044A\u044C'";
+	/**
+	 * The rules for latin and cyrillic texts
+	 */
+	public static final SyllableRules DEFAULT = new SyllableRules(VOWELS, DONT_TEAR_OFF_AT_END);
+
+	private final String vowels;
+	private final String dontTearOffAtEnd;
+
+	/**
+	 * Creates the rules.
+	 * @param vowels the vowels in lower case
+	 * @param dontTearOffAtEnd the characters which can't start the next line
+	 * after the hyphen, in lower case
+	 */
+	public SyllableRules(String vowels, String dontTearOffAtEnd) {
+		this.vowels = vowels;
+		this.dontTearOffAtEnd = dontTearOffAtEnd;
+	}
+
+	public void hyphenate(String text, int start, int end, HyphenationIndex index) {
+		boolean hasVowel = false;
+		int consIndex = -1;
+		int consCount = 0;
+
+		for (int p = start; p < end; p++) {
+			char c = MultiText.toLowerCase(text.charAt(p));
+			if (vowels.indexOf(c) != -1) {
+				if (hasVowel) {
+					if (consCount == 0) { // between vowels
+						index.setBreak(p, true);
+					} else if (consIndex != -1) { // opened or closed syllable
+						index.setBreak(consIndex, true);
+					}
+				}
+				hasVowel = true;
+				consIndex = -1;
+				consCount = 0;
+			} else if (hasVowel) {
+				if (dontTearOffAtEnd.indexOf(c) < 0) {
+					consIndex = p;
+				}
+				consCount++;
+			}
+		}
+	}
+}
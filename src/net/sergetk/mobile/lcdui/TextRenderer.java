@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.lcdui;
+
+import javax.microedition.lcdui.Graphics;
+
+/**
+ * <p>TextRenderer measures and draws text in one font. It is implemented by BitmapFont
+ * and by NativeFontRenderer for fonts of the device, so FontFacade and MultiText can work
+ * with both kinds of fonts, and with your own renderers, in the same way.</p>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+public interface TextRenderer {
+	/**
+	 * Draws the specified character.
+	 * @param g the graphics context
+	 * @param c the character to be drawn
+	 * @param x the x coordinate of the anchor point
+	 * @param y the y coordinate of the anchor point
+	 * @param anchors the anchor point for positioning of the character
+	 * @return the x coordinate for the next character
+	 */
+	public int drawChar(Graphics g, char c, int x, int y, int anchors);
+
+	/**
+	 * Draws the specified characters.
+	 * @param g the graphics context
+	 * @param data the array of characters to be drawn
+	 * @param offset the start offset in the data
+	 * @param length the number of characters to be drawn
+	 * @param x the x coordinate of the anchor point
+	 * @param y the y coordinate of the anchor point
+	 * @param anchors the anchor point for positioning the text
+	 * @return the x coordinate for the next character
+	 */
+	public int drawChars(Graphics g, char[] data, int offset, int length, int x, int y, int anchors);
+
+	/**
+	 * Draws the specified string.
+	 * @param g the graphics context
+	 * @param text the text to be drawn
+	 * @param x the x coordinate of the anchor point
+	 * @param y the y coordinate of the anchor point
+	 * @param anchors the anchor point for positioning of the text
+	 * @return the x coordinate for the next string
+	 */
+	public int drawString(Graphics g, String text, int x, int y, int anchors);
+
+	/**
+	 * Draws the specified substring.
+	 * @param g the graphics context
+	 * @param text the text to be drawn
+	 * @param offset the index of a first character
+	 * @param length the number of characters
+	 * @param x the x coordinate of the anchor point
+	 * @param y the y coordinate of the anchor point
+	 * @param anchors the anchor point for positioning the text
+	 * @return the x coordinate for the next string
+	 */
+	public int drawSubstring(Graphics g, String text, int offset, int length, int x, int y, int anchors);
+
+	/**
+	 * Gets the width of the specified character.
+	 * @param c the character to be measured
+	 * @return the width in pixels
+	 */
+	public int charWidth(char c);
+
+	/**
+	 * Gets the width of the characters.
+	 * @param ch the array of characters
+	 * @param offset zero-based index of a first character
+	 * @param length the number of characters to measure
+	 * @return the width in pixels
+	 */
+	public int charsWidth(char[] ch, int offset, int length);
+
+	/**
+	 * Gets the width of the string.
+	 * @param str the string to be measured
+	 * @return the width in pixels
+	 */
+	public int stringWidth(String str);
+
+	/**
+	 * Gets the width of the substring.
+	 * @param str the string to be measured
+	 * @param offset zero-based index of a first character in the substring
+	 * @param length the number of characters to measure
+	 * @return the width in pixels
+	 */
+	public int substringWidth(String str, int offset, int length);
+
+	/**
+	 * Gets the standard height of a line of a text.
+	 * @return the height in pixels
+	 */
+	public int getHeight();
+
+	/**
+	 * Gets the distance from the top of the text to the text baseline.
+	 * @return the baseline position in pixels
+	 */
+	public int getBaselinePosition();
+}
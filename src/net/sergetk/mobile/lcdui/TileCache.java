@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.lcdui;
+
+import javax.microedition.lcdui.Graphics;
+import javax.microedition.lcdui.Image;
+
+/**
+ * <p>The cache of the formatted text drawn to offscreen images. The text is divided
+ * into tiles of the fixed height, only the tiles which aren't cached are drawn
+ * by MultiText, others are copied to the screen. So the scrolled text is drawn
+ * by a few images and only the new tiles are rendered by fonts. The least recently
+ * used tiles are removed when the estimated size of images exceeds the budget.</p>
+ * 
+ * <p>Tiles are removed when the text is formatted or edited, when its width or
+ * globalColor is changed. Call invalidate() if other parameters are changed
+ * without formatting.</p>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+public final class TileCache {
+	// the estimated size of a pixel of the image
+	private static final int PIXEL_SIZE = 4;
+
+	private final MultiText text;
+	private final int tileHeight;
+	private final LayoutCache tiles;
+
+	/**
+	 * The color of the background of tiles
+	 */
+	public int background;
+
+	// the state of the text the cached tiles are drawn for
+	private int layoutVersion;
+	private int globalColor;
+	private int width;
+
+	/**
+	 * Creates the cache.
+	 * @param text the text
+	 * @param tileHeight the height of tiles in pixels
+	 * @param budget the maximum estimated size of images in bytes
+	 * @param background the color of the background
+	 */
+	public TileCache(MultiText text, int tileHeight, int budget, int background) {
+		this.text = text;
+		this.tileHeight = tileHeight;
+		this.tiles = new LayoutCache(budget);
+		this.background = background;
+	}
+
+	/**
+	 * Draws the text. The tiles crossing the clip are drawn, the tiles
+	 * which aren't cached are rendered first.
+	 * @param g the graphics context
+	 * @param x the x position
+	 * @param y the y position
+	 */
+	public void draw(Graphics g, int x, int y) {
+		MultiText text = this.text;
+		if (text.getLayoutVersion() != layoutVersion || text.globalColor != globalColor
+				|| text.width != width) {
+			invalidate();
+			layoutVersion = text.getLayoutVersion();
+			globalColor = text.globalColor;
+			width = text.width;
+		}
+		if (width <= 0) {
+			return;
+		}
+
+		int clipTop = g.getClipY() - y;
+		int clipBottom = clipTop + g.getClipHeight();
+		if (clipTop < 0) {
+			clipTop = 0;
+		}
+		int height = text.getHeight();
+		if (clipBottom > height) {
+			clipBottom = height;
+		}
+		for (int i = clipTop / tileHeight; i * tileHeight < clipBottom; i++) {
+			Integer key = new Integer(i);
+			Image tile = (Image) tiles.get(key);
+			if (tile == null) {
+				tile = render(i);
+				tiles.put(key, tile, PIXEL_SIZE * width * tileHeight);
+			}
+			g.drawImage(tile, x, y + i * tileHeight, Graphics.TOP|Graphics.LEFT);
+		}
+	}
+
+	/**
+	 * Removes all tiles.
+	 */
+	public void invalidate() {
+		tiles.clear();
+	}
+
+	/**
+	 * Removes the tiles crossing the range.
+	 * @param top the top of the range relative to the text
+	 * @param bottom the bottom of the range relative to the text
+	 */
+	public void invalidate(int top, int bottom) {
+		if (top < 0) {
+			top = 0;
+		}
+		for (int i = top / tileHeight; i * tileHeight < bottom; i++) {
+			tiles.remove(new Integer(i));
+		}
+	}
+
+	/**
+	 * Changes the budget, tiles are removed if they don't fit it.
+	 * @param budget the maximum estimated size of images in bytes
+	 */
+	public void setBudget(int budget) {
+		tiles.setBudget(budget);
+	}
+
+	/**
+	 * Gets the number of tiles copied from the cache since the last invalidation.
+	 * @return the number of cache hits
+	 */
+	public int getHits() {
+		return tiles.getHits();
+	}
+
+	/**
+	 * Gets the number of rendered tiles since the last invalidation.
+	 * @return the number of cache misses
+	 */
+	public int getMisses() {
+		return tiles.getMisses();
+	}
+
+	/**
+	 * Draws the tile.
+	 * @param index the index of the tile
+	 * @return the image of the tile
+	 */
+	private Image render(int index) {
+		Image tile = Image.createImage(width, tileHeight);
+		Graphics g = tile.getGraphics();
+		g.setColor(background);
+		g.fillRect(0, 0, width, tileHeight);
+		text.draw(g, 0, - index * tileHeight);
+		return tile;
+	}
+}
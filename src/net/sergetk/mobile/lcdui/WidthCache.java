@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.lcdui;
+
+import java.util.Hashtable;
+
+/**
+ * <p>The bounded cache of measured string widths. Strings are compared by the content,
+ * the least recently used string is removed when the cache is full.</p>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+final class WidthCache {
+	private final int capacity;
+	private final Hashtable entries;
+	// the head of the circular usage list, head.next is the most recently used entry
+	private final Entry head = new Entry(null, 0);
+
+	private int hits;
+	private int misses;
+
+	/**
+	 * Creates the cache.
+	 * @param capacity the maximum number of strings in the cache
+	 */
+	WidthCache(int capacity) {
+		this.capacity = capacity;
+		this.entries = new Hashtable(capacity);
+		head.prev = head.next = head;
+	}
+
+	int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Gets the width of the string.
+	 * @param str the string
+	 * @return the width in pixels or -1 if the string isn't in the cache
+	 */
+	synchronized int get(String str) {
+		Entry entry = head.next;
+		// the same label is often measured several times in a row
+		if (entry.key != str) {
+			entry = (Entry) entries.get(str);
+		}
+		if (entry == null) {
+			misses++;
+			return -1;
+		}
+		hits++;
+		if (entry != head.next) {
+			unlink(entry);
+			linkFirst(entry);
+		}
+		return entry.width;
+	}
+
+	/**
+	 * Puts the width of the string to the cache.
+	 * @param str the string
+	 * @param width the width in pixels
+	 */
+	synchronized void put(String str, int width) {
+		if (capacity <= 0) {
+			return;
+		}
+		Entry entry = (Entry) entries.get(str);
+		if (entry != null) {
+			entry.width = width;
+			unlink(entry);
+		} else {
+			if (entries.size() >= capacity) {
+				Entry last = head.prev;
+				unlink(last);
+				entries.remove(last.key);
+			}
+			entry = new Entry(str, width);
+			entries.put(str, entry);
+		}
+		linkFirst(entry);
+	}
+
+	synchronized void clear() {
+		entries.clear();
+		head.prev = head.next = head;
+		hits = misses = 0;
+	}
+
+	synchronized int getHits() {
+		return hits;
+	}
+
+	synchronized int getMisses() {
+		return misses;
+	}
+
+	private void unlink(Entry entry) {
+		entry.prev.next = entry.next;
+		entry.next.prev = entry.prev;
+	}
+
+	private void linkFirst(Entry entry) {
+		entry.next = head.next;
+		entry.prev = head;
+		head.next.prev = entry;
+		head.next = entry;
+	}
+
+	private static final class Entry {
+		final String key;
+		int width;
+		Entry prev, next;
+
+		Entry(String key, int width) {
+			this.key = key;
+			this.width = width;
+		}
+	}
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.tools;
+
+import java.util.Hashtable;
+
+/**
+ * <p>Packs glyphs into pages of the .fnt format. Identical glyphs are stored once,
+ * other characters get the negative width pointing to the stored glyph. The loader
+ * puts glyphs in rows of the font height one after another and starts a new row when
+ * the glyph doesn't fit the width of the page, so glyphs are packed into rows by
+ * the first fit decreasing algorithm and written row by row: a glyph of a row never
+ * fits the rest of the previous row, so the loader finds the same positions. The width
+ * of pages which gives the fewest pages of the smallest area is chosen.</p>
+ * 
+ * <p>The second version of the format stores positions of characters, so the limits
+ * of aliases of the first version don't apply to it.</p>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+final class AtlasPacker {
+	/**
+	 * The maximum index of a glyph an alias can point to
+	 */
+	private static final int MAX_SOURCE = 128;
+
+	private final GlyphSet glyphs;
+
+	/**
+	 * Characters in the order of the font
+	 */
+	String chars;
+	/**
+	 * Widths of characters, negative for aliases of the first version
+	 */
+	int[] widths;
+	/**
+	 * Widths of characters, aliases have widths of their glyphs
+	 */
+	int[] glyphWidths;
+	int[] x, y, page;
+	int[] pageWidths;
+	int[] pageHeights;
+	byte[][] pages;
+	int aliases;
+
+	/**
+	 * Creates the packer.
+	 * @param glyphs the glyphs
+	 */
+	AtlasPacker(GlyphSet glyphs) {
+		this.glyphs = glyphs;
+	}
+
+	/**
+	 * Packs the glyphs.
+	 * @param maxWidth the maximum width of pages
+	 * @param maxHeight the maximum height of pages
+	 * @param dedupe true to store identical glyphs once
+	 * @param sequential true if the loader finds glyphs one after another as
+	 * in the first version of the format
+	 * @throws IllegalArgumentException if glyphs don't fit the size of pages
+	 */
+	void pack(int maxWidth, int maxHeight, boolean dedupe, boolean sequential) {
+		int count = glyphs.count;
+		int height = glyphs.height;
+		int rowsPerPage = maxHeight / height;
+		if (rowsPerPage == 0) {
+			throw new IllegalArgumentException("The height of pages is less than the font height");
+		}
+		int minWidth = 1;
+		for (int i = 0; i < count; i++) {
+			minWidth = Math.max(minWidth, glyphs.widths[i]);
+		}
+		if (minWidth > maxWidth) {
+			throw new IllegalArgumentException("The width of pages is less than the width of glyphs");
+		}
+
+		// the first of identical glyphs for every glyph, -1 if the glyph is stored
+		int[] sources = new int[count];
+		Hashtable<String, Integer> firsts = new Hashtable<String, Integer>();
+		for (int i = 0; i < count; i++) {
+			sources[i] = -1;
+			if (dedupe) {
+				String key = key(i);
+				Integer first = firsts.get(key);
+				if (first != null) {
+					sources[i] = first.intValue();
+				} else {
+					firsts.put(key, Integer.valueOf(i));
+				}
+			}
+		}
+
+		for (;;) {
+			int[] stored = sortByWidth(sources);
+			boolean[] isSource = new boolean[count];
+			for (int i = 0; i < count; i++) {
+				if (sources[i] != -1) {
+					isSource[sources[i]] = true;
+				}
+			}
+
+			// the width of pages giving the fewest pages of the smallest area
+			int bestWidth = maxWidth;
+			long bestCost = Long.MAX_VALUE;
+			int[] rows = new int[stored.length];
+			for (int w = minWidth; w <= maxWidth; w++) {
+				int rowCount = fillRows(stored, w, rows);
+				int pageCount = (rowCount + rowsPerPage - 1) / rowsPerPage;
+				long cost = ((long) pageCount << 32) + (long) w * rowCount * height;
+				if (cost < bestCost) {
+					bestCost = cost;
+					bestWidth = w;
+				}
+			}
+			int rowCount = fillRows(stored, bestWidth, rows);
+
+			// glyphs row by row, glyphs having aliases go first to get small indexes
+			int[] order = new int[count];
+			int size = 0;
+			for (int row = 0; row < rowCount; row++) {
+				for (int pass = 0; pass < 2; pass++) {
+					for (int i = 0; i < stored.length; i++) {
+						if (rows[i] == row && isSource[stored[i]] == (pass == 0)) {
+							order[size++] = stored[i];
+						}
+					}
+				}
+			}
+			// the index 0 can't be a source, the zero width isn't an alias
+			if (sequential && isSource[order[0]]) {
+				for (int i = 1; i < size && rows[indexOf(stored, order[i])] == 0; i++) {
+					if (!isSource[order[i]]) {
+						int t = order[0];
+						order[0] = order[i];
+						order[i] = t;
+						break;
+					}
+				}
+			}
+			int[] positions = new int[count];
+			for (int i = 0; i < size; i++) {
+				positions[order[i]] = i;
+			}
+
+			// aliases pointing too far are stored as glyphs
+			boolean changed = false;
+			for (int i = 0; sequential && i < count; i++) {
+				int source = sources[i];
+				if (source != -1 && (positions[source] == 0 || positions[source] > MAX_SOURCE)) {
+					sources[i] = -1;
+					changed = true;
+				}
+			}
+			if (changed) {
+				continue;
+			}
+
+			aliases = count - size;
+			for (int i = 0; i < count; i++) {
+				if (sources[i] != -1) {
+					order[size++] = i;
+				}
+			}
+			build(order, sources, positions, bestWidth, rowsPerPage);
+			if (sequential) {
+				verify();
+			}
+			return;
+		}
+	}
+
+	/**
+	 * Makes pages and the character map for the order of glyphs.
+	 */
+	private void build(int[] order, int[] sources, int[] positions, int pageWidth, int rowsPerPage) {
+		int count = order.length;
+		int height = glyphs.height;
+		char[] map = new char[count];
+		widths = new int[count];
+		glyphWidths = new int[count];
+		x = new int[count];
+		y = new int[count];
+		page = new int[count];
+
+		// positions as the loader finds them
+		int curX = 0, curY = 0, curPage = 0;
+		int[] usedWidths = new int[count + 1];
+		int pageCount = 1;
+		for (int i = 0; i < count; i++) {
+			int glyph = order[i];
+			map[i] = glyphs.chars[glyph];
+			glyphWidths[i] = glyphs.widths[glyph];
+			if (sources[glyph] != -1) {
+				int source = positions[sources[glyph]];
+				widths[i] = -source;
+				x[i] = x[source];
+				y[i] = y[source];
+				page[i] = page[source];
+				continue;
+			}
+			int width = glyphs.widths[glyph];
+			widths[i] = width;
+			if (curX + width > pageWidth) {
+				curX = 0;
+				curY += height;
+				if (curY + height > rowsPerPage * height) {
+					curY = 0;
+					curPage++;
+					pageCount++;
+				}
+			}
+			x[i] = curX;
+			y[i] = curY;
+			page[i] = curPage;
+			curX += width;
+			usedWidths[curPage] = Math.max(usedWidths[curPage], curX);
+		}
+		chars = new String(map);
+
+		pageWidths = new int[pageCount];
+		pageHeights = new int[pageCount];
+		pages = new byte[pageCount][];
+		for (int i = 0; i < count; i++) {
+			if (sources[order[i]] == -1) {
+				pageHeights[page[i]] = Math.max(pageHeights[page[i]], y[i] + height);
+			}
+		}
+		for (int p = 0; p < pageCount; p++) {
+			// a narrower page doesn't change rows, the rest of a row only gets smaller
+			pageWidths[p] = Math.max(usedWidths[p], 1);
+			pageHeights[p] = Math.max(pageHeights[p], height);
+			pages[p] = new byte[pageWidths[p] * pageHeights[p]];
+			if (glyphs.background != 0) {
+				for (int j = 0; j < pages[p].length; j++) {
+					pages[p][j] = (byte) glyphs.background;
+				}
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			if (sources[order[i]] == -1 && widths[i] > 0) {
+				byte[] image = glyphs.pixels[order[i]];
+				int w = widths[i];
+				byte[] target = pages[page[i]];
+				int scan = pageWidths[page[i]];
+				for (int j = 0; j < height; j++) {
+					System.arraycopy(image, j * w, target, (y[i] + j) * scan + x[i], w);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks that the loader finds glyphs where they are drawn.
+	 * @throws IllegalStateException if a glyph is found at another position
+	 */
+	private void verify() {
+		int height = glyphs.height;
+		int curX = 0, curY = 0, curIdx = 0;
+		for (int i = 0; i < widths.length; i++) {
+			int w = widths[i];
+			if (w < 0) {
+				if (-w >= i || widths[-w] < 0 || x[i] != x[-w] || y[i] != y[-w] || page[i] != page[-w]) {
+					throw new IllegalStateException("Wrong alias of " + (int) chars.charAt(i));
+				}
+				continue;
+			}
+			if (curX + w > pageWidths[curIdx]) {
+				curX = 0;
+				curY += height;
+				if (curY + height > pageHeights[curIdx]) {
+					curY = 0;
+					curIdx++;
+				}
+			}
+			if (w > 0 && (x[i] != curX || y[i] != curY || page[i] != curIdx)) {
+				throw new IllegalStateException("Wrong position of " + (int) chars.charAt(i));
+			}
+			curX += w;
+		}
+	}
+
+	/**
+	 * Puts glyphs into rows by the first fit.
+	 * @param stored glyphs sorted by width, the widest go first
+	 * @param width the width of rows
+	 * @param rows receives the row of every glyph
+	 * @return the number of rows
+	 */
+	private int fillRows(int[] stored, int width, int[] rows) {
+		int[] rest = new int[stored.length + 1];
+		int rowCount = 0;
+		for (int i = 0; i < stored.length; i++) {
+			int w = glyphs.widths[stored[i]];
+			int row = 0;
+			while (row < rowCount && rest[row] < w) {
+				row++;
+			}
+			if (row == rowCount) {
+				rest[rowCount++] = width;
+			}
+			rest[row] -= w;
+			rows[i] = row;
+		}
+		return rowCount;
+	}
+
+	/**
+	 * Gets stored glyphs sorted by width, the widest go first. Glyphs
+	 * of the same width keep their order.
+	 */
+	private int[] sortByWidth(int[] sources) {
+		int size = 0;
+		for (int i = 0; i < sources.length; i++) {
+			if (sources[i] == -1) {
+				size++;
+			}
+		}
+		int[] result = new int[size];
+		size = 0;
+		for (int i = 0; i < sources.length; i++) {
+			if (sources[i] == -1) {
+				int w = glyphs.widths[i];
+				int j = size++;
+				while (j > 0 && glyphs.widths[result[j - 1]] < w) {
+					result[j] = result[j - 1];
+					j--;
+				}
+				result[j] = i;
+			}
+		}
+		return result;
+	}
+
+	private static int indexOf(int[] array, int value) {
+		for (int i = 0; i < array.length; i++) {
+			if (array[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the key of identical glyphs.
+	 */
+	private String key(int glyph) {
+		byte[] image = glyphs.pixels[glyph];
+		char[] key = new char[image.length + 1];
+		key[0] = (char) glyphs.widths[glyph];
+		for (int i = 0; i < image.length; i++) {
+			key[i + 1] = (char) (image[i] & 0xFF);
+		}
+		return new String(key);
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.tools;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.util.StringTokenizer;
+
+/**
+ * <p>Imports glyphs from a font in the BDF format. Glyphs are placed on the cell
+ * of the font height by their bounding boxes, the width of a glyph is its advance.
+ * Encodings are Unicode code points unless a charset of the 8-bit encoding
+ * of the font is specified.</p>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+final class BdfImporter {
+	private static final int[] PALETTE = {0x00FFFFFF, 0xFF000000};
+	private static final byte INK = 1;
+
+	private BdfImporter() {
+	}
+
+	/**
+	 * Reads the font.
+	 * @param fileName the name of the file
+	 * @param charset the name of the charset of encodings, null for Unicode
+	 * @return the glyphs
+	 * @throws IOException if the file can't be read or has wrong format
+	 */
+	static GlyphSet read(String fileName, String charset) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), "ISO-8859-1"));
+		try {
+			return read(reader, charset);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static GlyphSet read(BufferedReader reader, String charset) throws IOException {
+		int ascent = Integer.MIN_VALUE, descent = Integer.MIN_VALUE;
+		int boxHeight = 0, boxY = 0;
+		GlyphSet glyphs = null;
+
+		int encoding = -1, advance = 0;
+		int bbw = 0, bbh = 0, bbx = 0, bby = 0;
+
+		String line;
+		while ((line = reader.readLine()) != null) {
+			StringTokenizer tokens = new StringTokenizer(line);
+			if (!tokens.hasMoreTokens()) {
+				continue;
+			}
+			String keyword = tokens.nextToken();
+			if (keyword.equals("FONTBOUNDINGBOX")) {
+				tokens.nextToken();
+				boxHeight = parseInt(tokens.nextToken());
+				tokens.nextToken();
+				boxY = parseInt(tokens.nextToken());
+			} else if (keyword.equals("FONT_ASCENT")) {
+				ascent = parseInt(tokens.nextToken());
+			} else if (keyword.equals("FONT_DESCENT")) {
+				descent = parseInt(tokens.nextToken());
+			} else if (keyword.equals("STARTCHAR")) {
+				encoding = -1;
+				advance = 0;
+				bbw = bbh = bbx = bby = 0;
+			} else if (keyword.equals("ENCODING")) {
+				encoding = parseInt(tokens.nextToken());
+			} else if (keyword.equals("DWIDTH")) {
+				advance = parseInt(tokens.nextToken());
+			} else if (keyword.equals("BBX")) {
+				bbw = parseInt(tokens.nextToken());
+				bbh = parseInt(tokens.nextToken());
+				bbx = parseInt(tokens.nextToken());
+				bby = parseInt(tokens.nextToken());
+			} else if (keyword.equals("BITMAP")) {
+				if (glyphs == null) {
+					if (ascent == Integer.MIN_VALUE) {
+						ascent = boxHeight + boxY;
+					}
+					if (descent == Integer.MIN_VALUE) {
+						descent = -boxY;
+					}
+					glyphs = new GlyphSet(ascent + descent, PALETTE, 0);
+					glyphs.baseline = ascent;
+				}
+				int height = glyphs.height;
+				byte[] image = new byte[Math.max(advance, 0) * height];
+				int top = ascent - (bby + bbh);
+				for (int row = 0; row < bbh; row++) {
+					line = reader.readLine();
+					if (line == null) {
+						throw new IOException("Unexpected end of the file");
+					}
+					line = line.trim();
+					int y = top + row;
+					for (int col = 0; col < bbw && col / 4 < line.length(); col++) {
+						int nibble = Character.digit(line.charAt(col / 4), 16);
+						int x = bbx + col;
+						if ((nibble & (8 >> (col % 4))) != 0
+								&& x >= 0 && x < advance && y >= 0 && y < height) {
+							image[y * advance + x] = INK;
+						}
+					}
+				}
+				char c = toChar(encoding, charset);
+				if (c != 0) {
+					glyphs.add(c, Math.max(advance, 0), image);
+				}
+			}
+		}
+		if (glyphs == null) {
+			throw new IOException("No glyphs in the font");
+		}
+		return glyphs;
+	}
+
+	/**
+	 * Converts the encoding of the glyph to the character.
+	 * @param encoding the encoding
+	 * @param charset the charset of the 8-bit encoding or null
+	 * @return the character, 0 if the glyph is skipped
+	 * @throws UnsupportedEncodingException if the charset isn't known
+	 */
+	private static char toChar(int encoding, String charset) throws UnsupportedEncodingException {
+		if (encoding <= 0 || encoding > 0xFFFF) {
+			return 0;
+		}
+		if (charset == null) {
+			return (char) encoding;
+		}
+		if (encoding > 0xFF) {
+			return 0;
+		}
+		String s = new String(new byte[] {(byte) encoding}, charset);
+		return s.length() == 1 && s.charAt(0) != '\uFFFD' ? s.charAt(0) : 0;
+	}
+
+	private static int parseInt(String s) throws IOException {
+		try {
+			return Integer.parseInt(s);
+		} catch (NumberFormatException e) {
+			throw new IOException("Wrong number " + s);
+		}
+	}
+}
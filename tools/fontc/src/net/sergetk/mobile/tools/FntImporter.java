@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Hashtable;
+
+/**
+ * <p>Imports glyphs from a font in the .fnt format of BitmapFont, so existing
+ * fonts can be packed again. Glyphs of the first version are found on pages as the loader
+ * of the font finds them, aliases become copies of their glyphs. The second version stores
+ * positions of glyphs. Palettes of pages are merged.</p>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+final class FntImporter {
+	private FntImporter() {
+	}
+
+	/**
+	 * Reads the font.
+	 * @param fileName the name of the file
+	 * @return the glyphs
+	 * @throws IOException if the file can't be read or has wrong format
+	 */
+	static GlyphSet read(String fileName) throws IOException {
+		DataInputStream data = new DataInputStream(new FileInputStream(fileName));
+		try {
+			return read(data);
+		} finally {
+			data.close();
+		}
+	}
+
+	private static GlyphSet read(DataInputStream data) throws IOException {
+		int version = data.readByte();
+		if (version != FntWriter.VERSION_1 && version != FntWriter.VERSION_2) {
+			throw new IOException("Unknown version " + version);
+		}
+		int height = data.readByte();
+		int baseline = data.readByte();
+		int xIndent = data.readByte();
+		int yIndent = data.readByte();
+		int spaceWidth = data.readByte();
+		String chars;
+		int[] widths, x = null, y = null, page = null;
+		if (version == FntWriter.VERSION_2) {
+			int flags = data.readUnsignedByte();
+			char[] map = new char[data.readUnsignedShort()];
+			for (int i = 0; i < map.length; i++) {
+				map[i] = data.readChar();
+			}
+			chars = new String(map);
+			widths = new int[map.length];
+			x = new int[map.length];
+			y = new int[map.length];
+			page = new int[map.length];
+			for (int i = 0; i < map.length; i++) {
+				widths[i] = data.readUnsignedByte();
+				if ((flags & FntWriter.WIDE_COORDINATES) != 0) {
+					x[i] = data.readUnsignedShort();
+					y[i] = data.readUnsignedShort();
+				} else {
+					x[i] = data.readUnsignedByte();
+					y[i] = data.readUnsignedByte();
+				}
+				page[i] = (flags & FntWriter.MANY_PAGES) != 0 ? data.readUnsignedByte() : 0;
+			}
+		} else {
+			chars = data.readUTF();
+			widths = new int[chars.length()];
+			for (int i = 0; i < widths.length; i++) {
+				widths[i] = data.readByte();
+			}
+		}
+		int count = chars.length();
+		IndexedImage[] pages = new IndexedImage[data.readByte()];
+		for (int i = 0; i < pages.length; i++) {
+			int length;
+			if (version == FntWriter.VERSION_2) {
+				data.readShort(); // the offset of the palette
+				length = data.readInt();
+			} else {
+				length = data.readShort();
+			}
+			byte[] buffer = new byte[length];
+			data.readFully(buffer);
+			pages[i] = IndexedImage.read(new ByteArrayInputStream(buffer), -1);
+		}
+
+		// palettes of pages are merged into one
+		Hashtable<Integer, Integer> indexes = new Hashtable<Integer, Integer>();
+		int[] palette = new int[256];
+		int colors = 0;
+		palette[colors++] = IndexedImage.TRANSPARENT;
+		indexes.put(Integer.valueOf(IndexedImage.TRANSPARENT), Integer.valueOf(0));
+		byte[][] maps = new byte[pages.length][];
+		for (int i = 0; i < pages.length; i++) {
+			int[] pagePalette = pages[i].palette;
+			maps[i] = new byte[pagePalette.length];
+			for (int j = 0; j < pagePalette.length; j++) {
+				Integer key = Integer.valueOf(pagePalette[j]);
+				Integer index = indexes.get(key);
+				if (index == null) {
+					if (colors == palette.length) {
+						throw new IOException("Pages have more than 256 colors");
+					}
+					index = Integer.valueOf(colors);
+					palette[colors++] = pagePalette[j];
+					indexes.put(key, index);
+				}
+				maps[i][j] = (byte) index.intValue();
+			}
+		}
+		int[] merged = new int[colors];
+		System.arraycopy(palette, 0, merged, 0, colors);
+
+		GlyphSet glyphs = new GlyphSet(height, merged, 0);
+		glyphs.baseline = baseline;
+		glyphs.xIndent = xIndent;
+		glyphs.yIndent = yIndent;
+		glyphs.spaceWidth = spaceWidth;
+
+		if (x == null) {
+			// glyphs follow each other in rows of the font height
+			x = new int[count];
+			y = new int[count];
+			page = new int[count];
+			int curX = 0, curY = 0, curIdx = 0;
+			for (int i = 0; i < count; i++) {
+				if (widths[i] < 0) {
+					int source = -widths[i];
+					widths[i] = widths[source];
+					x[i] = x[source];
+					y[i] = y[source];
+					page[i] = page[source];
+				} else {
+					if (curX + widths[i] > pages[curIdx].width) {
+						curX = 0;
+						curY += height;
+						if (curY + height > pages[curIdx].height) {
+							curY = 0;
+							curIdx++;
+						}
+					}
+					x[i] = curX;
+					y[i] = curY;
+					page[i] = curIdx;
+					curX += widths[i];
+				}
+			}
+		}
+
+		for (int i = 0; i < count; i++) {
+			IndexedImage image = pages[page[i]];
+			byte[] pixels = image.copy(x[i], y[i], widths[i], height, Math.max(image.background, 0));
+			for (int j = 0; j < pixels.length; j++) {
+				pixels[j] = maps[page[i]][pixels[j] & 0xFF];
+			}
+			glyphs.add(chars.charAt(i), widths[i], pixels);
+		}
+		return glyphs;
+	}
+}
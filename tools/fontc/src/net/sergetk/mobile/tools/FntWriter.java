@@ -0,0 +1,133 @@
+package net.sergetk.mobile.tools;
+
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * <p>Writes the packed font in the .fnt format read by BitmapFont: the header,
+ * the character map, widths or rectangles of characters and images of pages
+ * in the PNG format.</p>
+ * 
+ * <p>The first version stores widths of characters in the order of packing, the loader
+ * finds positions of characters from sizes of pages. The second version stores the map
+ * sorted by codes with the rectangle and the page of every character, and the offset
+ * of the palette chunk of every page, so the loader only reads them.</p>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+final class FntWriter {
+	static final int VERSION_1 = 0;
+	static final int VERSION_2 = 2;
+	// flags of the character map of the second version
+	static final int WIDE_COORDINATES = 1;
+	static final int MANY_PAGES = 2;
+
+	/**
+	 * The maximum number of pages, the count is stored in a signed byte
+	 */
+	private static final int MAX_PAGES = 127;
+
+	private FntWriter() {
+	}
+
+	/**
+	 * Writes the font.
+	 * @param fileName the name of the file
+	 * @param glyphs the glyphs
+	 * @param atlas the packed glyphs
+	 * @param version the version of the format
+	 * @return the size of the file in bytes
+	 * @throws IOException if the file can't be written or the font doesn't fit the format
+	 */
+	static int write(String fileName, GlyphSet glyphs, AtlasPacker atlas, int version) throws IOException {
+		if (atlas.pages.length > MAX_PAGES) {
+			throw new IOException("The font has more than " + MAX_PAGES + " pages, make pages bigger");
+		}
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(fileName));
+		try {
+			out.writeByte(version);
+			out.writeByte(glyphs.height);
+			out.writeByte(glyphs.baseline);
+			out.writeByte(glyphs.xIndent);
+			out.writeByte(glyphs.yIndent);
+			out.writeByte(glyphs.getSpaceWidth());
+			if (version == VERSION_2) {
+				writeCharacters(out, atlas);
+			} else {
+				out.writeUTF(atlas.chars);
+				for (int i = 0; i < atlas.widths.length; i++) {
+					out.writeByte(atlas.widths[i]);
+				}
+			}
+			out.writeByte(atlas.pages.length);
+			for (int i = 0; i < atlas.pages.length; i++) {
+				byte[] png = PngWriter.write(atlas.pageWidths[i], atlas.pageHeights[i],
+						atlas.pages[i], glyphs.palette);
+				if (version == VERSION_2) {
+					out.writeShort(PngWriter.getChunk(png, "PLTE"));
+					out.writeInt(png.length);
+				} else {
+					if (png.length > Short.MAX_VALUE) {
+						throw new IOException("The page " + i + " is bigger than " + Short.MAX_VALUE
+								+ " bytes, make pages smaller");
+					}
+					out.writeShort(png.length);
+				}
+				out.write(png);
+			}
+			return out.size();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the character map sorted by codes and the width, the x and y coordinates
+	 * and the page of every character. Coordinates take one byte if pages are small
+	 * and pages aren't written for a font of one page.
+	 */
+	private static void writeCharacters(DataOutputStream out, AtlasPacker atlas) throws IOException {
+		int count = atlas.chars.length();
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++) {
+			char c = atlas.chars.charAt(i);
+			int j = i;
+			while (j > 0 && atlas.chars.charAt(order[j - 1]) > c) {
+				order[j] = order[j - 1];
+				j--;
+			}
+			order[j] = i;
+		}
+		int flags = atlas.pages.length > 1 ? MANY_PAGES : 0;
+		for (int i = 0; i < count; i++) {
+			if (atlas.x[i] > 0xFFFF || atlas.y[i] > 0xFFFF) {
+				throw new IOException("Pages are bigger than " + 0xFFFF + " pixels");
+			}
+			if (atlas.x[i] > 0xFF || atlas.y[i] > 0xFF) {
+				flags |= WIDE_COORDINATES;
+			}
+		}
+		out.writeByte(flags);
+		out.writeShort(count);
+		for (int i = 0; i < count; i++) {
+			out.writeChar(atlas.chars.charAt(order[i]));
+		}
+		for (int i = 0; i < count; i++) {
+			int j = order[i];
+			out.writeByte(atlas.glyphWidths[j]);
+			if ((flags & WIDE_COORDINATES) != 0) {
+				out.writeShort(atlas.x[j]);
+				out.writeShort(atlas.y[j]);
+			} else {
+				out.writeByte(atlas.x[j]);
+				out.writeByte(atlas.y[j]);
+			}
+			if ((flags & MANY_PAGES) != 0) {
+				out.writeByte(atlas.page[j]);
+			}
+		}
+	}
+}
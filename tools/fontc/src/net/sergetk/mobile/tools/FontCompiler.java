@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.tools;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <p>The font compiler makes fonts for BitmapFont from fonts in the BDF format,
+ * from images with grids of glyphs or from existing .fnt files. Identical glyphs
+ * are stored once, glyphs are packed into the fewest pages of the smallest area
+ * and pages are written as the smallest PNG images with a palette. Fonts are written
+ * in the first version of the format, which is the smallest, unless the second one
+ * is requested.</p>
+ * 
+ * <pre>
+ * java -jar fontc.jar -bdf font.bdf [-charset KOI8-R] -o font.fnt
+ * java -jar fontc.jar -grid font.png -cell 8x13 -chars "ABC..." [-monospaced] [-background FFFFFF] -o font.fnt
+ * java -jar fontc.jar -fnt old.fnt -o font.fnt
+ * 
+ * options:
+ *   -maxwidth N      the maximum width of pages, 256 by default
+ *   -maxheight N     the maximum height of pages, 256 by default
+ *   -baseline N      the baseline of the font
+ *   -space N         the width of space
+ *   -xindent N       the distance between characters
+ *   -yindent N       the distance between lines
+ *   -nodedupe        store identical glyphs as many times as they are used
+ *   -v1              write the first version of the format, the default
+ *   -v2              write the second version of the format, which is loaded faster
+ *   -pages PREFIX    write images of pages to PREFIX0.png, PREFIX1.png...
+ * </pre>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+public final class FontCompiler {
+	private FontCompiler() {
+	}
+
+	public static void main(String[] args) {
+		try {
+			compile(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println("fontc: " + e.getMessage());
+			System.err.println("Usage: fontc (-bdf FILE | -grid FILE -cell WxH -chars TEXT | -fnt FILE) -o FILE [options]");
+			System.exit(1);
+		} catch (IOException e) {
+			System.err.println("fontc: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Compiles the font.
+	 * @param args arguments of the command line
+	 * @throws IOException if files can't be read or written
+	 * @throws IllegalArgumentException if arguments are wrong
+	 */
+	static void compile(String[] args) throws IOException {
+		String bdf = null, grid = null, fnt = null, output = null, pagesPrefix = null;
+		String chars = null, charset = null;
+		int cellWidth = 0, cellHeight = 0;
+		int maxWidth = 256, maxHeight = 256;
+		int baseline = -1, space = -1, xIndent = -1, yIndent = -1;
+		int background = -1;
+		boolean monospaced = false, dedupe = true;
+		int version = FntWriter.VERSION_1;
+
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("-monospaced")) {
+				monospaced = true;
+			} else if (arg.equals("-nodedupe")) {
+				dedupe = false;
+			} else if (arg.equals("-v1")) {
+				version = FntWriter.VERSION_1;
+			} else if (arg.equals("-v2")) {
+				version = FntWriter.VERSION_2;
+			} else {
+				if (i + 1 >= args.length) {
+					throw new IllegalArgumentException("No value of " + arg);
+				}
+				String value = args[++i];
+				if (arg.equals("-bdf")) {
+					bdf = value;
+				} else if (arg.equals("-grid")) {
+					grid = value;
+				} else if (arg.equals("-fnt")) {
+					fnt = value;
+				} else if (arg.equals("-o")) {
+					output = value;
+				} else if (arg.equals("-pages")) {
+					pagesPrefix = value;
+				} else if (arg.equals("-chars")) {
+					chars = value;
+				} else if (arg.equals("-charset")) {
+					charset = value;
+				} else if (arg.equals("-cell")) {
+					int separator = value.indexOf('x');
+					if (separator == -1) {
+						throw new IllegalArgumentException("The cell must be WxH");
+					}
+					cellWidth = parseInt(value.substring(0, separator));
+					cellHeight = parseInt(value.substring(separator + 1));
+				} else if (arg.equals("-background")) {
+					background = parseHex(value);
+				} else if (arg.equals("-maxwidth")) {
+					maxWidth = parseInt(value);
+				} else if (arg.equals("-maxheight")) {
+					maxHeight = parseInt(value);
+				} else if (arg.equals("-baseline")) {
+					baseline = parseInt(value);
+				} else if (arg.equals("-space")) {
+					space = parseInt(value);
+				} else if (arg.equals("-xindent")) {
+					xIndent = parseInt(value);
+				} else if (arg.equals("-yindent")) {
+					yIndent = parseInt(value);
+				} else {
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			}
+		}
+		int sources = (bdf != null ? 1 : 0) + (grid != null ? 1 : 0) + (fnt != null ? 1 : 0);
+		if (output == null || sources != 1) {
+			throw new IllegalArgumentException("One source and the output must be specified");
+		}
+
+		GlyphSet glyphs;
+		if (bdf != null) {
+			glyphs = BdfImporter.read(bdf, charset);
+		} else if (grid != null) {
+			if (chars == null || cellWidth <= 0 || cellHeight <= 0) {
+				throw new IllegalArgumentException("The grid needs -cell and -chars");
+			}
+			glyphs = GridImporter.read(grid, cellWidth, cellHeight, chars, monospaced, background);
+			glyphs.xIndent = 1;
+		} else {
+			glyphs = FntImporter.read(fnt);
+		}
+		if (baseline >= 0) {
+			glyphs.baseline = baseline;
+		}
+		if (space >= 0) {
+			glyphs.spaceWidth = space;
+		}
+		if (xIndent >= 0) {
+			glyphs.xIndent = xIndent;
+		}
+		if (yIndent >= 0) {
+			glyphs.yIndent = yIndent;
+		}
+
+		AtlasPacker atlas = new AtlasPacker(glyphs);
+		atlas.pack(maxWidth, maxHeight, dedupe, version == FntWriter.VERSION_1);
+		int size = FntWriter.write(output, glyphs, atlas, version);
+
+		StringBuffer pages = new StringBuffer();
+		for (int i = 0; i < atlas.pages.length; i++) {
+			pages.append(i > 0 ? ", " : "").append(atlas.pageWidths[i]).append('x').append(atlas.pageHeights[i]);
+			if (pagesPrefix != null) {
+				OutputStream out = new FileOutputStream(pagesPrefix + i + ".png");
+				try {
+					out.write(PngWriter.write(atlas.pageWidths[i], atlas.pageHeights[i],
+							atlas.pages[i], glyphs.palette));
+				} finally {
+					out.close();
+				}
+			}
+		}
+		System.out.println(output + ": " + atlas.chars.length() + " characters, "
+				+ atlas.aliases + " aliases, pages " + pages + ", " + size + " bytes");
+	}
+
+	private static int parseInt(String s) {
+		try {
+			return Integer.parseInt(s);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Wrong number " + s);
+		}
+	}
+
+	private static int parseHex(String s) {
+		try {
+			return Integer.parseInt(s, 16) & 0xFFFFFF;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Wrong color " + s);
+		}
+	}
+}
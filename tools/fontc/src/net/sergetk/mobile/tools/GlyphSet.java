@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.tools;
+
+import java.util.Hashtable;
+
+/**
+ * <p>The glyphs of a font before packing. Every glyph is an image of the full font
+ * height and its own width, pixels are indexes in the palette shared by all glyphs.</p>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+final class GlyphSet {
+	/**
+	 * The maximum width and height, they are stored in bytes
+	 */
+	static final int MAX_SIZE = 127;
+
+	int height;
+	int baseline;
+	int xIndent;
+	int yIndent;
+	int spaceWidth = -1;
+
+	/**
+	 * ARGB colors of the palette
+	 */
+	int[] palette;
+	/**
+	 * The index of the transparent color filling empty pixels
+	 */
+	int background;
+
+	char[] chars = new char[64];
+	int[] widths = new int[64];
+	byte[][] pixels = new byte[64][];
+	int count;
+
+	private final Hashtable<Character, Integer> indexes = new Hashtable<Character, Integer>();
+
+	/**
+	 * Creates the set.
+	 * @param height the height of glyphs
+	 * @param palette ARGB colors of the palette
+	 * @param background the index of the transparent color
+	 */
+	GlyphSet(int height, int[] palette, int background) {
+		if (height <= 0 || height > MAX_SIZE) {
+			throw new IllegalArgumentException("Height " + height + " isn't in 1.." + MAX_SIZE);
+		}
+		this.height = height;
+		this.baseline = height;
+		this.palette = palette;
+		this.background = background;
+	}
+
+	/**
+	 * Adds the glyph. The space isn't added, its width becomes the width of space
+	 * unless it is set.
+	 * @param c the character
+	 * @param width the width of the glyph
+	 * @param image indexes of pixels row by row, width * height bytes
+	 * @throws IllegalArgumentException if the glyph is too wide or the character is added twice
+	 */
+	void add(char c, int width, byte[] image) {
+		if (c == ' ') {
+			if (spaceWidth < 0) {
+				spaceWidth = width;
+			}
+			return;
+		}
+		if (width < 0 || width > MAX_SIZE) {
+			throw new IllegalArgumentException("Width of the character " + (int)c + " isn't in 0.." + MAX_SIZE);
+		}
+		Character key = Character.valueOf(c);
+		if (indexes.get(key) != null) {
+			throw new IllegalArgumentException("The character " + (int)c + " is added twice");
+		}
+		if (count == chars.length) {
+			char[] newChars = new char[count * 2];
+			int[] newWidths = new int[count * 2];
+			byte[][] newPixels = new byte[count * 2][];
+			System.arraycopy(chars, 0, newChars, 0, count);
+			System.arraycopy(widths, 0, newWidths, 0, count);
+			System.arraycopy(pixels, 0, newPixels, 0, count);
+			chars = newChars;
+			widths = newWidths;
+			pixels = newPixels;
+		}
+		indexes.put(key, Integer.valueOf(count));
+		chars[count] = c;
+		widths[count] = width;
+		pixels[count] = image;
+		count++;
+	}
+
+	/**
+	 * Gets the width of space, the half of the height if it isn't set.
+	 * @return the width of space
+	 */
+	int getSpaceWidth() {
+		return spaceWidth >= 0 ? spaceWidth : (height + 1) / 2;
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.tools;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <p>Imports glyphs from an image with a grid of cells of the same size. Characters
+ * are taken from cells left to right and top to bottom. The width of a glyph
+ * is the width of its ink unless the font is monospaced.</p>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+final class GridImporter {
+	private GridImporter() {
+	}
+
+	/**
+	 * Reads the glyphs.
+	 * @param fileName the name of the image file
+	 * @param cellWidth the width of cells
+	 * @param cellHeight the height of cells, it is the height of the font
+	 * @param chars characters of cells
+	 * @param monospaced true if all glyphs have the width of cells
+	 * @param backgroundColor the RGB color of the background, -1 for the transparent
+	 * color or the color of the top left pixel
+	 * @return the glyphs
+	 * @throws IOException if the image can't be read
+	 */
+	static GlyphSet read(String fileName, int cellWidth, int cellHeight, String chars,
+			boolean monospaced, int backgroundColor) throws IOException
+	{
+		InputStream input = new FileInputStream(fileName);
+		IndexedImage image;
+		try {
+			image = IndexedImage.read(input, backgroundColor);
+		} finally {
+			input.close();
+		}
+
+		int columns = image.width / cellWidth;
+		int rows = image.height / cellHeight;
+		if (chars.length() > columns * rows) {
+			throw new IOException("The image has " + columns * rows + " cells for "
+					+ chars.length() + " characters");
+		}
+		GlyphSet glyphs = new GlyphSet(cellHeight, image.palette, image.background);
+		for (int i = 0; i < chars.length(); i++) {
+			int x = (i % columns) * cellWidth;
+			int y = (i / columns) * cellHeight;
+			int width = cellWidth;
+			if (!monospaced) {
+				width = inkWidth(image, x, y, cellWidth, cellHeight);
+				if (width == 0) {
+					width = cellWidth;
+				}
+			}
+			glyphs.add(chars.charAt(i), width, image.copy(x, y, width, cellHeight, image.background));
+		}
+		return glyphs;
+	}
+
+	/**
+	 * Gets the width of the cell up to the last column with ink.
+	 * @return the width, 0 if the cell is empty
+	 */
+	private static int inkWidth(IndexedImage image, int x, int y, int w, int h) {
+		for (int i = w - 1; i >= 0; i--) {
+			for (int j = 0; j < h; j++) {
+				if (image.pixels[(y + j) * image.width + x + i] != (byte) image.background) {
+					return i + 1;
+				}
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.tools;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Hashtable;
+
+import javax.imageio.ImageIO;
+
+/**
+ * <p>The image with a palette. Images with a palette keep it, colors of other images
+ * are collected into the palette. Pixels which are less than half opaque and pixels
+ * of the background color become transparent.</p>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+final class IndexedImage {
+	/**
+	 * The color of transparent pixels
+	 */
+	static final int TRANSPARENT = 0x00FFFFFF;
+
+	final int width;
+	final int height;
+	final byte[] pixels;
+	final int[] palette;
+	/**
+	 * The index of the transparent color, -1 if there is no transparent color
+	 */
+	final int background;
+
+	private IndexedImage(int width, int height, byte[] pixels, int[] palette, int background) {
+		this.width = width;
+		this.height = height;
+		this.pixels = pixels;
+		this.palette = palette;
+		this.background = background;
+	}
+
+	/**
+	 * Reads the image.
+	 * @param input the stream of the image in any format known by ImageIO
+	 * @param backgroundColor the RGB color of the background, -1 if the color
+	 * of the top left pixel is the background of an opaque image
+	 * @return the image
+	 * @throws IOException if the image can't be read or has more than 256 colors
+	 */
+	static IndexedImage read(InputStream input, int backgroundColor) throws IOException {
+		BufferedImage image = ImageIO.read(input);
+		if (image == null) {
+			throw new IOException("Unknown image format");
+		}
+		int width = image.getWidth();
+		int height = image.getHeight();
+		byte[] pixels = new byte[width * height];
+
+		if (image.getColorModel() instanceof IndexColorModel && backgroundColor == -1) {
+			IndexColorModel model = (IndexColorModel) image.getColorModel();
+			int[] palette = new int[model.getMapSize()];
+			model.getRGBs(palette);
+			int background = -1;
+			for (int i = 0; i < palette.length; i++) {
+				if ((palette[i] >>> 24) < 0x80) {
+					palette[i] = TRANSPARENT;
+					if (background == -1) {
+						background = i;
+					}
+				}
+			}
+			// the palette is kept if it has the transparent color
+			if (background != -1) {
+				for (int y = 0; y < height; y++) {
+					for (int x = 0; x < width; x++) {
+						int index = image.getRaster().getSample(x, y, 0);
+						if (palette[index] == TRANSPARENT) {
+							index = background;
+						}
+						pixels[y * width + x] = (byte) index;
+					}
+				}
+				return new IndexedImage(width, height, pixels, palette, background);
+			}
+		}
+
+		if (backgroundColor == -1 && !hasTransparency(image)) {
+			backgroundColor = image.getRGB(0, 0) & 0xFFFFFF;
+		}
+		Hashtable<Integer, Integer> indexes = new Hashtable<Integer, Integer>();
+		int[] palette = new int[256];
+		int count = 0;
+		palette[count++] = TRANSPARENT;
+		indexes.put(Integer.valueOf(TRANSPARENT), Integer.valueOf(0));
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int argb = image.getRGB(x, y);
+				if ((argb >>> 24) < 0x80 || (argb & 0xFFFFFF) == backgroundColor) {
+					argb = TRANSPARENT;
+				} else {
+					argb |= 0xFF000000;
+				}
+				Integer key = Integer.valueOf(argb);
+				Integer index = indexes.get(key);
+				if (index == null) {
+					if (count == palette.length) {
+						throw new IOException("The image has more than 256 colors");
+					}
+					index = Integer.valueOf(count);
+					palette[count++] = argb;
+					indexes.put(key, index);
+				}
+				pixels[y * width + x] = (byte) index.intValue();
+			}
+		}
+		int[] result = new int[count];
+		System.arraycopy(palette, 0, result, 0, count);
+		return new IndexedImage(width, height, pixels, result, 0);
+	}
+
+	private static boolean hasTransparency(BufferedImage image) {
+		if (!image.getColorModel().hasAlpha()) {
+			return false;
+		}
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				if ((image.getRGB(x, y) >>> 24) < 0x80) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Copies the rectangle of the image. Pixels outside the image are transparent.
+	 * @param x the x position of the rectangle
+	 * @param y the y position of the rectangle
+	 * @param w the width of the rectangle
+	 * @param h the height of the rectangle
+	 * @param transparent the index of transparent pixels
+	 * @return pixels of the rectangle row by row
+	 */
+	byte[] copy(int x, int y, int w, int h, int transparent) {
+		byte[] result = new byte[w * h];
+		for (int j = 0; j < h; j++) {
+			for (int i = 0; i < w; i++) {
+				int px = x + i, py = y + j;
+				result[j * w + i] = px < width && py < height
+						? pixels[py * width + px] : (byte) transparent;
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2005-2009 Sergey Tkachev http://sergetk.net
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.sergetk.mobile.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * <p>Writes images with a palette in the PNG format as small as possible. Unused colors
+ * are removed, transparent colors go first to shorten the tRNS chunk, pixels are
+ * packed with the smallest bit depth. Every filter strategy is compressed with
+ * every deflate strategy and the smallest result is taken. The image keeps
+ * the PLTE chunk, so it can be colorized by PaletteColorizer.</p>
+ * 
+ * <p>This code is a part of the Mobile Fonts Project (http://sourceforge.net/projects/mobilefonts)</p>
+ * 
+ * @author Sergey Tkachev <a href="http://sergetk.net">http://sergetk.net</a>
+ */
+final class PngWriter {
+	private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+	private static final int COLOR_TYPE_PALETTE = 3;
+
+	// filter strategies: one of the five filters for all rows or the best filter for every row
+	private static final int ADAPTIVE = 5;
+
+	private static final int[] DEFLATE_STRATEGIES = {Deflater.DEFAULT_STRATEGY, Deflater.FILTERED};
+
+	private PngWriter() {
+	}
+
+	/**
+	 * Encodes the image.
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @param pixels indexes of pixels row by row
+	 * @param palette ARGB colors of the palette
+	 * @return the image in the PNG format
+	 * @throws IOException never, the image is written to the memory
+	 */
+	static byte[] write(int width, int height, byte[] pixels, int[] palette) throws IOException {
+		// used colors, transparent ones go first
+		boolean[] used = new boolean[palette.length];
+		for (int i = 0; i < pixels.length; i++) {
+			used[pixels[i] & 0xFF] = true;
+		}
+		int[] map = new int[palette.length];
+		int[] colors = new int[palette.length];
+		int count = 0;
+		for (int pass = 0; pass < 2; pass++) {
+			for (int i = 0; i < palette.length; i++) {
+				boolean opaque = (palette[i] >>> 24) == 0xFF;
+				if (used[i] && opaque == (pass == 1)) {
+					map[i] = count;
+					colors[count++] = palette[i];
+				}
+			}
+		}
+		if (count == 0) {
+			colors[count++] = IndexedImage.TRANSPARENT;
+		}
+		int transparent = 0;
+		while (transparent < count && (colors[transparent] >>> 24) != 0xFF) {
+			transparent++;
+		}
+
+		int depth = count <= 2 ? 1 : count <= 4 ? 2 : count <= 16 ? 4 : 8;
+		int stride = (width * depth + 7) / 8;
+		byte[] raw = new byte[stride * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int index = map[pixels[y * width + x] & 0xFF];
+				int bit = x * depth;
+				raw[y * stride + bit / 8] |= index << (8 - depth - bit % 8);
+			}
+		}
+
+		byte[] best = null;
+		for (int filter = 0; filter <= ADAPTIVE; filter++) {
+			byte[] filtered = filter(raw, stride, height, filter);
+			for (int i = 0; i < DEFLATE_STRATEGIES.length; i++) {
+				byte[] data = deflate(filtered, DEFLATE_STRATEGIES[i]);
+				if (best == null || data.length < best.length) {
+					best = data;
+				}
+			}
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.write(SIGNATURE);
+
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream headerData = new DataOutputStream(header);
+		headerData.writeInt(width);
+		headerData.writeInt(height);
+		headerData.writeByte(depth);
+		headerData.writeByte(COLOR_TYPE_PALETTE);
+		headerData.writeByte(0); // compression
+		headerData.writeByte(0); // filter method
+		headerData.writeByte(0); // no interlace
+		writeChunk(out, "IHDR", header.toByteArray());
+
+		byte[] plte = new byte[count * 3];
+		for (int i = 0; i < count; i++) {
+			plte[i * 3] = (byte) (colors[i] >> 16);
+			plte[i * 3 + 1] = (byte) (colors[i] >> 8);
+			plte[i * 3 + 2] = (byte) colors[i];
+		}
+		writeChunk(out, "PLTE", plte);
+
+		if (transparent > 0) {
+			byte[] trns = new byte[transparent];
+			for (int i = 0; i < transparent; i++) {
+				trns[i] = (byte) (colors[i] >>> 24);
+			}
+			writeChunk(out, "tRNS", trns);
+		}
+		writeChunk(out, "IDAT", best);
+		writeChunk(out, "IEND", new byte[0]);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Filters rows of the image.
+	 * @param raw packed pixels
+	 * @param stride the number of bytes in a row
+	 * @param height the number of rows
+	 * @param strategy the filter of all rows or ADAPTIVE
+	 * @return rows, each one starts with the type of the filter
+	 */
+	private static byte[] filter(byte[] raw, int stride, int height, int strategy) {
+		byte[] result = new byte[(stride + 1) * height];
+		byte[] row = new byte[stride];
+		for (int y = 0; y < height; y++) {
+			int type = strategy;
+			if (strategy == ADAPTIVE) {
+				// the filter with the smallest sum of absolute differences
+				long bestSum = Long.MAX_VALUE;
+				for (int t = 0; t < ADAPTIVE; t++) {
+					filterRow(raw, stride, y, t, row);
+					long sum = 0;
+					for (int i = 0; i < stride; i++) {
+						sum += Math.abs((int) row[i]);
+					}
+					if (sum < bestSum) {
+						bestSum = sum;
+						type = t;
+					}
+				}
+			}
+			filterRow(raw, stride, y, type, row);
+			result[y * (stride + 1)] = (byte) type;
+			System.arraycopy(row, 0, result, y * (stride + 1) + 1, stride);
+		}
+		return result;
+	}
+
+	private static void filterRow(byte[] raw, int stride, int y, int type, byte[] row) {
+		int offset = y * stride;
+		for (int i = 0; i < stride; i++) {
+			int x = raw[offset + i] & 0xFF;
+			// the pixel is smaller than a byte, so the left neighbour is the previous byte
+			int a = i > 0 ? raw[offset + i - 1] & 0xFF : 0;
+			int b = y > 0 ? raw[offset - stride + i] & 0xFF : 0;
+			int c = i > 0 && y > 0 ? raw[offset - stride + i - 1] & 0xFF : 0;
+			int predictor;
+			switch (type) {
+			case 1:
+				predictor = a;
+				break;
+			case 2:
+				predictor = b;
+				break;
+			case 3:
+				predictor = (a + b) / 2;
+				break;
+			case 4:
+				predictor = paeth(a, b, c);
+				break;
+			default:
+				predictor = 0;
+			}
+			row[i] = (byte) (x - predictor);
+		}
+	}
+
+	private static int paeth(int a, int b, int c) {
+		int p = a + b - c;
+		int pa = Math.abs(p - a);
+		int pb = Math.abs(p - b);
+		int pc = Math.abs(p - c);
+		if (pa <= pb && pa <= pc) {
+			return a;
+		}
+		return pb <= pc ? b : c;
+	}
+
+	private static byte[] deflate(byte[] data, int strategy) {
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		deflater.setStrategy(strategy);
+		deflater.setInput(data);
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		while (!deflater.finished()) {
+			int n = deflater.deflate(buffer);
+			out.write(buffer, 0, n);
+		}
+		deflater.end();
+		return out.toByteArray();
+	}
+
+	private static void writeChunk(DataOutputStream out, String type, byte[] data) throws IOException {
+		byte[] name = type.getBytes("ISO-8859-1");
+		CRC32 crc = new CRC32();
+		crc.update(name);
+		crc.update(data);
+		out.writeInt(data.length);
+		out.write(name);
+		out.write(data);
+		out.writeInt((int) crc.getValue());
+	}
+
+	/**
+	 * Finds the chunk in the image.
+	 * @param png the image in the PNG format
+	 * @param type the name of the chunk
+	 * @return the offset of the chunk from the start of the image, -1 if it isn't found
+	 */
+	static int getChunk(byte[] png, String type) {
+		int offset = SIGNATURE.length;
+		while (offset + 8 <= png.length) {
+			int length = ((png[offset] & 0xFF) << 24) | ((png[offset + 1] & 0xFF) << 16)
+					| ((png[offset + 2] & 0xFF) << 8) | (png[offset + 3] & 0xFF);
+			boolean found = true;
+			for (int i = 0; i < 4; i++) {
+				found &= png[offset + 4 + i] == type.charAt(i);
+			}
+			if (found) {
+				return offset;
+			}
+			offset += 4 + 4 + length + 4;
+		}
+		return -1;
+	}
+}